@@ -14,18 +14,28 @@
  * limitations under the License.
  */
 
-package com.taw.dashtube.model;
+package com.taw.dashtube;
 
-import com.google.api.client.util.Key;
+import android.util.Log;
 
 /**
- * Simple class encapsulating the {@code LineStatus} element.
+ * {@link Logger} that writes to the Android log.
  */
-public class LineStatus {
-    @Key("Line")
-    public Line line;
-    @Key("Status")
-    public Status status;
-    @Key("@StatusDetails")
-    public String statusDetails;
+public class AndroidLogger implements Logger {
+
+    /** Shared instance; there's no state. */
+    public static final AndroidLogger INSTANCE = new AndroidLogger();
+
+    private AndroidLogger() {
+    }
+
+    @Override
+    public void w(String tag, String msg, Throwable tr) {
+        Log.w(tag, msg, tr);
+    }
+
+    @Override
+    public void e(String tag, String msg, Throwable tr) {
+        Log.e(tag, msg, tr);
+    }
 }
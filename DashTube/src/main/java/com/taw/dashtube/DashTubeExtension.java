@@ -17,193 +17,304 @@
 package com.taw.dashtube;
 
 import android.content.Intent;
-import android.preference.PreferenceManager;
 import android.text.format.DateFormat;
 import com.google.android.apps.dashclock.api.DashClockExtension;
 import com.google.android.apps.dashclock.api.ExtensionData;
-import com.google.api.client.http.GenericUrl;
-import com.google.api.client.http.HttpRequest;
-import com.google.api.client.http.HttpResponse;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.taw.dashtube.model.ArrayOfLineStatus;
-import com.taw.dashtube.model.LineStatus;
-import com.taw.dashtube.model.Tube;
+import com.taw.dashtube.model.Favourites;
+import com.taw.dashtube.model.PlannedWorks;
+import com.taw.dashtube.model.StatusSnapshot;
 
 import java.io.IOException;
-import java.util.*;
+import java.util.Date;
 
 /**
- * DashClock extension that reports on problems with London Underground services.
+ * DashClock extension that reports on problems with London Underground services. Fetching
+ * is left to the {@link StatusCoordinator}, which the other surfaces share; the extension
+ * decides when DashClock's updates are worth a fetch, and turns the results into
+ * {@code ExtensionData}.
  */
 public class DashTubeExtension extends DashClockExtension {
-    /** Logging tag. */
-    private static final String TAG = "DashTube";
-
     /** How many lines to output before we truncate output and display the more info msg. */
     private static final int LINES_LIMIT = 4;
 
-    /** Start time of tube services. */
-    private GregorianCalendar closureStart;
-    /** End time of tube services. */
-    private GregorianCalendar closureEnd;
+    /** Generates the extension body text. */
+    private StatusFormatter formatter;
+
+    /** Fetches statuses into the cache, for us and the other surfaces. */
+    private StatusCoordinator coordinator;
+    /** Result of the last successful fetch, republished while the feed is unchanged. */
+    private StatusCache cache = StatusCache.getInstance();
+    /** Planned works, refreshed daily; live closures they account for aren't treated as disruption. */
+    private PlannedWorksStore plannedWorks;
+
+    /** The user's favourite lines, kept up to date as they're edited. */
+    private FavouritesStore favourites;
+
+    /** Where update cycles spend their time; shown on the diagnostics screen. */
+    private final UpdateMetrics metrics = UpdateMetrics.getInstance();
+    /** Timings for the current update cycle; reused across cycles. */
+    private final UpdateMetrics.Cycle cycle = new UpdateMetrics.Cycle();
+
+    /** Decides how often fetching the feed is worthwhile. */
+    private UpdateScheduler scheduler = new UpdateScheduler();
+    /** Whether we've currently asked DashClock for screen-on updates. */
+    private boolean updateWhenScreenOn = false;
+    /** What the scheduler's intervals are currently stretched by, to save data. */
+    private int intervalFactor = 1;
+    /** Time of the last fetch the scheduler was told about, whoever it was for. */
+    private long lastRecordedFetch = 0;
+    /** ID of the cached snapshot at that fetch. */
+    private long lastRecordedSnapshotId = 0;
+
+    /** Data last published to DashClock. */
+    private ExtensionData lastPublished;
 
     /** Shared Preferences keys. */
     public static final String FAVOURITE_LINES_PREF = "favourite_lines";
 
-    /** Key for the XML  we pass to the on-tap intent. */
-    public static final String TUBE_STATUS_XML = "com.taw.dashtube.TubeStatusXML";
-    /** Key for the status timestamp, also passed to the on-tap intent. */
-    public static final String TUBE_STATUS_TIMESTAMP = "com.taw.dashtube.TubeStatusTimestamp";
+    /** Key for the ID of the cached snapshot we pass to the on-tap intent. */
+    public static final String TUBE_STATUS_SNAPSHOT_ID = "com.taw.dashtube.TubeStatusSnapshotId";
 
     @Override
     public void onCreate() {
         super.onCreate();
 
-        // Set tube closure hours (approximate values) in UTC
-        closureStart = new GregorianCalendar();
-        closureStart.set(Calendar.HOUR_OF_DAY, 1);
-        closureStart.set(Calendar.MINUTE, 30);
+        favourites = FavouritesStore.getInstance(this);
+        formatter = new StatusFormatter(getString(R.string.line_status), getString(R.string.more_lines), LINES_LIMIT);
 
-        closureEnd = new GregorianCalendar();
-        closureEnd.set(Calendar.HOUR_OF_DAY, 4);
-        closureEnd.set(Calendar.MINUTE, 45);
+        coordinator = StatusCoordinator.getInstance(this);
+        plannedWorks = PlannedWorksStore.getInstance(this);
+        lastRecordedSnapshotId = cache.getSnapshotId();
     }
 
     /**
      * On update, retrieves a line status update, and populates an ExtensionData object
      * ready for publication. The data object my be empty if there are no updates, or may
      * be populated with some error details if we can't get the status for some reason.
+     * If the feed hasn't changed since the last update, nothing is published, unless
+     * DashClock has just connected or the user asked for the update.
      */
     @Override
     protected void onUpdateData(int reason) {
+        long now = System.currentTimeMillis();
+        boolean background = (reason == UPDATE_REASON_PERIODIC || reason == UPDATE_REASON_SCREEN_ON);
+        cycle.start(now);
+
+        if (reason == UPDATE_REASON_INITIAL) {
+            // Restores the last known statuses if nothing else has yet, off the main thread
+            coordinator.initialise();
+        }
+
+        // Fetches for the widget or detail activity count towards the schedule too
+        recordFetches(now);
+        applyDataBudget(now);
 
         ExtensionData data = new ExtensionData();
-        if (shouldGetUpdates()) {
-            try {
-                GenericUrl url = new GenericUrl(getString(R.string.line_status_api_url));
-
-                HttpTransport transport = new NetHttpTransport();
-                HttpRequest req = transport.createRequestFactory().buildGetRequest(url);
-
-                HttpResponse rsp = req.execute();
-                data = processResponse(rsp);
-                rsp.disconnect();
-            } catch (IOException ioe) {
-                // Some kind of connection issue
-                data = populateExtensionData(R.string.error_status,
-                        R.string.error_status,
-                        getString(R.string.error_request_expanded_body),
-                        null);
+        boolean fetched = false;
+        if (!coordinator.isServiceRunning(now)) {
+            // Nothing running; publish the empty data object
+        } else if (cache.isPopulated() && coordinator.covers(favourites.get())
+                && !scheduler.shouldFetch(background, now)) {
+            // Too soon since the last fetch for another to be worthwhile
+            data = republishCachedData();
+        } else {
+            if (reason == UPDATE_REASON_INITIAL && cache.isStale()) {
+                // Show the snapshot while the initial update goes to the network
+                publish(republishCachedData(), true);
             }
+            data = fetch(now);
+            fetched = true;
+            recordFetches(now);
         }
 
-        publishUpdate(data);
+        publish(data, reason == UPDATE_REASON_INITIAL || reason == UPDATE_REASON_MANUAL);
+        metrics.record(cycle);
+
+        // Planned works are only needed daily, so piggyback on an update that's woken the radio anyway
+        if (fetched) {
+            coordinator.refreshPlannedWorks(now);
+        }
     }
 
     /**
-     * Process the response, generating a populated {@code ExtensionData} object as appropriate.
+     * Tell the scheduler about any successful fetch since the last one it was told about,
+     * whichever surface it was for.
      *
-     * @param rsp the response from the status request
-     * @return a popualted {@code ExtensionData} ready for publication
+     * @param now current time
      */
-    private ExtensionData processResponse(HttpResponse rsp) throws IOException {
-        ExtensionData data = null;
+    private void recordFetches(long now) {
+        long fetchedAt;
+        long snapshotId;
+        synchronized (cache) {
+            // The cache is stamped with the time of every successful fetch, whether it changed or not
+            if (!cache.isPopulated() || cache.isStale() || cache.getTimestamp() == lastRecordedFetch) return;
+            fetchedAt = cache.getTimestamp();
+            snapshotId = cache.getSnapshotId();
+        }
 
-        // Convert response into string - we'll send the full XML string as an extra in the on-tap
-        // intent; we need to do this as DashClock does not support passing parcelables/
-        // serializables in intents. Note we substring here to remove the BOM that's handily sent in
-        // the response from TfL.
-        String xml = rsp.parseAsString().substring(3);
+        scheduler.recordFetch(fetchedAt, hasDisruption(now), snapshotId != lastRecordedSnapshotId);
+        lastRecordedFetch = fetchedAt;
+        lastRecordedSnapshotId = snapshotId;
+        updateScreenOnSetting(now);
+    }
 
-        ArrayOfLineStatus result = DashTubeUtils.parseTubeLineStatusResponse(xml);
+    /**
+     * Stretch the schedule's intervals as the user's data cap nears.
+     *
+     * @param now current time
+     */
+    private void applyDataBudget(long now) {
+        int factor = coordinator.getBudgetLevel(now).getIntervalFactor();
+        if (factor != intervalFactor) {
+            scheduler.setIntervalFactor(factor);
+            intervalFactor = factor;
+            updateScreenOnSetting(now);
+        }
+    }
 
-        if (result != null && result.status != null) {
-            ArrayList<LineStatus> filteredResults = DashTubeUtils.getFilteredResults(this, result);
+    /**
+     * Ask DashClock for screen-on updates only while the scheduler thinks they're worthwhile.
+     *
+     * @param now current time
+     */
+    private void updateScreenOnSetting(long now) {
+        boolean wanted = scheduler.wantsScreenOnUpdates(now);
+        if (wanted != updateWhenScreenOn) {
+            setUpdateWhenScreenOn(wanted);
+            updateWhenScreenOn = wanted;
+        }
+    }
 
-            if (filteredResults.size() > 0) {
-                Intent i = new Intent(this, DetailActivity.class);
-                i.putExtra(TUBE_STATUS_XML, xml);
-                i.putExtra(TUBE_STATUS_TIMESTAMP, DateFormat.getTimeFormat(this).format(new Date()));
+    /**
+     * @param now current time
+     * @return true if any of the lines the user is interested in are currently disrupted, other
+     *         than by planned works, which won't change from one poll to the next
+     */
+    private boolean hasDisruption(long now) {
+        PlannedWorks works = plannedWorks.get();
+        synchronized (cache) {
+            StatusSnapshot result = cache.getResult();
+            for (int slot : cache.getFilteredResults(favourites.get())) {
+                if (result.isActive(slot) && !works.explains(result, slot, now)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 
-                Set<String> preferredLines =  PreferenceManager.getDefaultSharedPreferences(this).getStringSet(FAVOURITE_LINES_PREF, null);
-                data = populateExtensionData(R.string.status,
-                        (preferredLines != null && preferredLines.size() != 0) ? R.string.expanded_title_filtered : R.string.expanded_title,
-                        generateStatusString(filteredResults, preferredLines),
-                        i);
+    /**
+     * Publish the supplied data, unless it's what we published last; unchanged statuses
+     * leave the cached data untouched, so there's no need to send it to DashClock again.
+     *
+     * @param data data to publish
+     * @param force whether to publish it even so, as DashClock may not have it
+     */
+    private void publish(ExtensionData data, boolean force) {
+        if (!force && data == lastPublished) return;
+
+        long start = System.nanoTime();
+        publishUpdate(data);
+        cycle.end(UpdateMetrics.Stage.PUBLISH, start);
+        lastPublished = data;
+    }
+
+    /**
+     * Have the coordinator fetch statuses, joining any fetch already in progress, and
+     * generate a populated {@code ExtensionData} object as appropriate. If the fetch fails,
+     * the last good statuses are published marked as stale, or an error if there are none.
+     *
+     * @param now time of the request
+     * @return a populated {@code ExtensionData} ready for publication
+     */
+    private ExtensionData fetch(long now) {
+        try {
+            coordinator.refresh(now, cycle);
+            return republishCachedData();
+        } catch (IOException ioe) {
+            cycle.setOutcome(UpdateMetrics.Outcome.ERROR);
+            if (cache.isPopulated()) {
+                // Better to show the last statuses we had, clearly dated, than an error
+                return republishCachedData();
             }
-        } else if (result == null) {
-            // We had some kind of parsing issue; logged elsewhere
-            data = populateExtensionData(R.string.error_status,
+            // Some kind of connection or parsing issue
+            return populateExtensionData(R.string.error_status,
                     R.string.error_status,
-                    getString(R.string.error_parsing_expanded_body),
+                    getString(StatusCoordinator.getErrorMessage(ioe)),
                     null);
         }
-
-        return data;
     }
 
     /**
-     * Determine whether to get status updates based on:
-     * 1) Whether it's December 25th - Tube is closed this day only
-     * 2) It's during the night closure period
+     * Get the data generated for the cached result, ready for republishing. If the user's
+     * favourites have changed since it was generated, or it has yet to be generated (e.g. the
+     * cache was restored from a snapshot or has just been updated), it is generated from the
+     * cached result first.
      *
-     * @return True if updates should be retrieved, false otherwise
+     * @return cached {@code ExtensionData}, or null if there were no problems to report
      */
-    private boolean shouldGetUpdates() {
-        Calendar now = Calendar.getInstance();
-
-        // Closed on Christmas Day only
-        if ((now.get(Calendar.DAY_OF_MONTH) == 25) && (now.get(Calendar.MONTH) == Calendar.DECEMBER)) {
-            return false;
-        }
+    private ExtensionData republishCachedData() {
+        synchronized (cache) {
+            Favourites preferredLines = favourites.get();
+            if (!cache.isDataCurrent(preferredLines)) {
+                long start = System.nanoTime();
+                StatusSnapshot result = cache.getResult();
+                int[] filteredResults = LineStatusFilter.getFilteredResults(result, preferredLines);
+                cycle.end(UpdateMetrics.Stage.FILTER, start);
+                cache.setData(generateExtensionData(result, filteredResults, cache.getSnapshotId(),
+                        cache.getTimestamp(), cache.isStale(), preferredLines), filteredResults, preferredLines);
+            }
 
-        // Else check if we're inside the night closure window. We need ms since midnight for the current date.
-        long nowMs = now.getTimeInMillis() % (24 * 60 * 60 * 1000);
-        if (nowMs > closureStart.getTimeInMillis() && nowMs < closureEnd.getTimeInMillis()) {
-            return false;
+            return cache.getData();
         }
-
-        return true;
     }
 
     /**
-     * Generate string for extension body - this is a list of lines with some kind of problem,
-     * together with their severity. Note regarding how many lines to output - if the
-     * user has opted to filter output, they will have at most 5 lines worth of info (the limit
-     * dashclock places on expanded body text). If the number of {@code LineStatus} objects we
-     * have is > 5, then they have not filtered, and so we will truncate output appropriately.
+     * Generate the {@code ExtensionData} for a set of filtered results.
      *
-     * @param lineStatuses {@code List<LineStatus>} of lines to filter against
+     * @param result the parsed line statuses
+     * @param filteredResults slots of the results to report on
+     * @param snapshotId ID of the cached snapshot the results come from, for the detail activity to look up
+     * @param timestamp when the results were fetched
+     * @param stale whether the results are out of date (restored, or not refreshed), and marked as such
      * @param preferredLines any favourites set by the user
-     * @return {@code String} containing body text for the extension
+     * @return populated {@code ExtensionData}, or null if there are no problems to report
      */
-    private String generateStatusString(List<LineStatus> lineStatuses, Set<String> preferredLines) {
-        String moreStr = getString(R.string.more_lines);
-        String statusStr = getString(R.string.line_status);
-
-        // Infrequently constructing this string, so concatenation is fine here
-        String str = "";
-
-        LineStatus lineStatus;
-        for (int i = 0; i < lineStatuses.size(); i ++) {
-            lineStatus = lineStatuses.get(i);
-            if (lineStatus.status.isActive) {
-                str += String.format(statusStr, Tube.LINE_MAP.get(lineStatus.line.id).getName(), lineStatus.status.description);
-                if (i != (lineStatuses.size() - 1)) {
-                    str += "\n";
-                }
-            }
-            if (preferredLines == null || preferredLines.size() == 0) {
-                if ((i + 1) == LINES_LIMIT && lineStatuses.size() > LINES_LIMIT) {
-                    // No filtering by user; output the "x more" msg
-                    str += String.format(moreStr, lineStatuses.size() - LINES_LIMIT);
-                    break;
-                }
+    private ExtensionData generateExtensionData(StatusSnapshot result, int[] filteredResults, long snapshotId,
+                                                long timestamp, boolean stale, Favourites preferredLines) {
+        ExtensionData data = null;
+
+        if (filteredResults.length > 0) {
+            // DashClock doesn't support passing parcelables/serializables in intents, and the
+            // detail activity runs in our process anyway, so just pass the ID of the cached snapshot
+            Intent i = new Intent(this, DetailActivity.class);
+            i.putExtra(TUBE_STATUS_SNAPSHOT_ID, snapshotId);
+
+            String title = getString(!preferredLines.isEmpty()
+                    ? R.string.expanded_title_filtered
+                    : R.string.expanded_title);
+            if (stale) {
+                title = getString(R.string.expanded_title_stale, title, formatTime(timestamp));
             }
+
+            long start = System.nanoTime();
+            String text = formatter.format(result, filteredResults, !preferredLines.isEmpty());
+            cycle.end(UpdateMetrics.Stage.FORMAT, start);
+
+            data = populateExtensionData(R.string.status, title, text, i);
         }
 
-        return str;
+        return data;
+    }
+
+    /**
+     * Format a timestamp for display.
+     *
+     * @param timestamp time in ms since the epoch
+     * @return time formatted according to the user's preferences
+     */
+    private String formatTime(long timestamp) {
+        return DateFormat.getTimeFormat(this).format(new Date(timestamp));
     }
 
     /**
@@ -217,11 +328,25 @@ public class DashTubeExtension extends DashClockExtension {
      * @return Fully populated ExtensionData object to publish
      */
     private ExtensionData populateExtensionData(int status, int title, String body, Intent intent) {
+        return populateExtensionData(status, getString(title), body, intent);
+    }
+
+    /**
+     * Generate an ExtensionData object ready to be published back to the main DashClock
+     * process.
+     *
+     * @param status Resource ID of the status string to use
+     * @param title Title string to use
+     * @param body String containing body text to use
+     * @param intent if supplied, allows user to click on the extension and go to TfL's web site
+     * @return Fully populated ExtensionData object to publish
+     */
+    private ExtensionData populateExtensionData(int status, String title, String body, Intent intent) {
         ExtensionData data = new ExtensionData();
         data.visible(true)
             .icon(R.drawable.ic_extension_dashtube)
             .status(getString(status))
-            .expandedTitle(getString(title))
+            .expandedTitle(title)
             .expandedBody(body);
         if (intent != null) {
             data.clickIntent(intent);
@@ -229,5 +354,4 @@ public class DashTubeExtension extends DashClockExtension {
 
         return data;
     }
-
 }
@@ -18,10 +18,11 @@ package com.taw.dashtube;
 
 import android.app.DialogFragment;
 import android.os.Bundle;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
-import android.preference.PreferenceManager;
 import android.text.TextUtils;
+import android.text.format.Formatter;
 import android.view.Menu;
 import android.view.MenuItem;
 import com.taw.dashtube.model.Tube;
@@ -33,6 +34,9 @@ import java.util.*;
  */
 public class DashTubeSettingsActivity extends PreferenceActivity {
 
+    /** Shared Preferences key of the (read-only) data used so far. */
+    private static final String DATA_USED_PREF = "data_used";
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -82,10 +86,19 @@ public class DashTubeSettingsActivity extends PreferenceActivity {
 
         Preference favourites = findPreference(DashTubeExtension.FAVOURITE_LINES_PREF);
         favourites.setOnPreferenceChangeListener(listener);
-        listener.onPreferenceChange(favourites,
-                PreferenceManager
-                        .getDefaultSharedPreferences(favourites.getContext())
-                        .getStringSet(favourites.getKey(), new HashSet<String>()));
+        listener.onPreferenceChange(favourites, FavouritesStore.getInstance(this).get().toIds());
+
+        for (String key : new String[] { DataBudgetStore.DAILY_CAP_PREF, DataBudgetStore.MONTHLY_CAP_PREF }) {
+            ListPreference cap = (ListPreference) findPreference(key);
+            cap.setOnPreferenceChangeListener(listener);
+            listener.onPreferenceChange(cap, cap.getValue());
+        }
+
+        long now = System.currentTimeMillis();
+        DataBudgetStore budget = DataBudgetStore.getInstance(this);
+        findPreference(DATA_USED_PREF).setSummary(getString(R.string.data_used_summary,
+                Formatter.formatShortFileSize(this, budget.getDayBytes(now)),
+                Formatter.formatShortFileSize(this, budget.getMonthBytes(now))));
     }
 
     /**
@@ -103,7 +116,8 @@ public class DashTubeSettingsActivity extends PreferenceActivity {
                 if (selections.size() > 0) {
                     // Translate the selected IDs into strings first, so we can sort
                     for (String selection : selections) {
-                        sortedNames.add(Tube.LINE_MAP.get(selection).getName());
+                        Tube tube = Tube.forId(selection);
+                        sortedNames.add(tube != null ? tube.getName() : selection);
                     }
                     Collections.sort(sortedNames, String.CASE_INSENSITIVE_ORDER);
                     String summary = TextUtils.join(", ", sortedNames);
@@ -111,6 +125,10 @@ public class DashTubeSettingsActivity extends PreferenceActivity {
                 } else {
                     preference.setSummary(preference.getContext().getString(R.string.favourite_lines_summary_none_selected));
                 }
+            } else if (preference instanceof ListPreference) {
+                ListPreference list = (ListPreference) preference;
+                int index = list.findIndexOfValue((String) value);
+                preference.setSummary(index >= 0 ? list.getEntries()[index] : null);
             }
 
             return true;
@@ -16,81 +16,28 @@
 
 package com.taw.dashtube;
 
-import android.content.Context;
-import android.preference.PreferenceManager;
-import android.util.Log;
-import com.google.api.client.xml.XmlNamespaceDictionary;
-import com.google.api.client.xml.XmlObjectParser;
-import com.taw.dashtube.model.ArrayOfLineStatus;
-import com.taw.dashtube.model.LineStatus;
+import com.taw.dashtube.model.StatusSnapshot;
 
-import java.io.IOException;
-import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Set;
+import java.io.InputStream;
 
 /**
- * Utility class mainly concerned with parsing XML responses and processing
- * results based on the user's preferences.
+ * Utility class concerned with parsing XML responses. The work itself is done in
+ * dashtube-core; this supplies it with the Android log.
  */
 public class DashTubeUtils {
 
-    /** Logging tag. */
-    private static final String TAG = "DashTubeUTils";
+    /** Parse stage, shared with the JVM-only modules; problems go to the Android log. */
+    private static final LineStatusFeed feed = new LineStatusFeed(AndroidLogger.INSTANCE);
 
     /**
-     * XML Object Parser, with default namespaces set. We get occasional namespace-related exceptions
-     * due to no aliases being set for default namespaces, so provide the main service URI here
-     */
-    private static XmlObjectParser parser = new XmlObjectParser(new XmlNamespaceDictionary().set("", "http://webservices.lul.co.uk/"));
-
-    /**
-     * Parse the supplied XML string into a {@code ArrayOfLineStatus} object. Returns at least
-     * a {@code ArrayOfLineStatus} with no status list (if there are no issues on the tube),
-     * or null if we had a problem parsing.
+     * Parse the feed directly from a response stream. Returns at least an empty snapshot (if
+     * the feed lists no lines), or null if we had a problem parsing. The stream is not closed.
      *
-     * @param xml XML string to parse
-     * @return Populated {@code ArrayOfLineStatus} object, or null if there was a parsing issue
+     * @param in stream to parse
+     * @param encoding character encoding of the stream, or null to detect it from the XML declaration
+     * @return Populated {@code StatusSnapshot}, or null if there was a parsing issue
      */
-    public static ArrayOfLineStatus parseTubeLineStatusResponse(String xml) {
-        try {
-            return parser.parseAndClose(new StringReader(xml), ArrayOfLineStatus.class);
-        } catch (IOException ioe) {
-            Log.e(TAG, "Problem parsing status response", ioe);
-            return null;
-        }
-    }
-
-    /**
-     * Filters the array of LineStatus objects down to just those required by the user, or
-     * all of them if no preference has been declared. Additionally sorts the list into tube
-     * name order, as the feed isn't ordered by tube name.
-     *
-     * @param context Context to aid in getting shared preferences
-     * @param results The original results from the LineStatus API call
-     * @return Filtered {@code List} of {@code LineStatus}, if filtered, or the original list otherwise
-     */
-    public static ArrayList<LineStatus> getFilteredResults(Context context, ArrayOfLineStatus results) {
-        Collections.sort(results.status, new Comparator<LineStatus>() {
-            @Override
-            public int compare(LineStatus lhs, LineStatus rhs) {
-                return lhs.line.name.compareToIgnoreCase(rhs.line.name);
-            }
-        });
-
-        Set<String> preferredLines =  PreferenceManager.getDefaultSharedPreferences(context).getStringSet(DashTubeExtension.FAVOURITE_LINES_PREF, null);
-        if (preferredLines == null || preferredLines.size() == 0) return results.status;
-
-        // Otherwise, have favourites set - extract them
-        ArrayList<LineStatus> filteredResults = new ArrayList<LineStatus>();
-        for (LineStatus status : results.status) {
-            if (preferredLines.contains(status.line.id)) {
-                filteredResults.add(status);
-            }
-        }
-
-        return filteredResults;
+    public static StatusSnapshot parseTubeLineStatusResponse(InputStream in, String encoding) {
+        return feed.parse(in, encoding);
     }
 }
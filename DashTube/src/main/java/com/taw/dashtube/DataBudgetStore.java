@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.TrafficStats;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.TimeZone;
+
+/**
+ * Process-wide holder for the {@link DataBudget}. Supplies it with the user's caps from
+ * the settings, and the state of the current connection from {@code ConnectivityManager};
+ * measures what each fetch costs with {@code TrafficStats}, falling back to the response
+ * sizes where per-app stats aren't supported; and keeps the counts in their own
+ * preferences file, so they survive restarts.
+ */
+public class DataBudgetStore {
+
+    /** Logging tag. */
+    private static final String TAG = "DashTubeDataBudget";
+
+    /** Shared Preferences keys for the caps, in MB; "0" for none. */
+    public static final String DAILY_CAP_PREF = "data_cap_daily";
+    public static final String MONTHLY_CAP_PREF = "data_cap_monthly";
+
+    /** Preferences file holding the counts, and its keys. */
+    private static final String COUNTS_FILE = "data_budget";
+    private static final String DAY_KEY = "day";
+    private static final String DAY_BYTES_KEY = "day_bytes";
+    private static final String MONTH_KEY = "month";
+    private static final String MONTH_BYTES_KEY = "month_bytes";
+
+    private static final long BYTES_PER_MB = 1024 * 1024;
+
+    /** The single instance, created on first use. */
+    private static DataBudgetStore instance;
+
+    /** Default shared preferences, holding the caps. */
+    private final SharedPreferences prefs;
+    /** Where the counts are kept. */
+    private final SharedPreferences counts;
+    /** For the state of the current connection. */
+    private final ConnectivityManager connectivity;
+    /** Our UID, for per-app traffic stats. */
+    private final int uid = Process.myUid();
+
+    /** The budget itself. */
+    private final DataBudget budget = new DataBudget(TimeZone.getDefault());
+
+    /**
+     * Picks up changes to the caps. SharedPreferences only holds weak references to its
+     * listeners, so we keep this one.
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener listener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (DAILY_CAP_PREF.equals(key) || MONTHLY_CAP_PREF.equals(key)) {
+                        readCaps();
+                    }
+                }
+            };
+
+    private DataBudgetStore(Context context) {
+        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        counts = context.getSharedPreferences(COUNTS_FILE, Context.MODE_PRIVATE);
+        connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        readCaps();
+        budget.restore(counts.getInt(DAY_KEY, 0), counts.getLong(DAY_BYTES_KEY, 0),
+                counts.getInt(MONTH_KEY, 0), counts.getLong(MONTH_BYTES_KEY, 0));
+        prefs.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * @param context any context; only the application context is held on to
+     * @return the process-wide store
+     */
+    public static synchronized DataBudgetStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new DataBudgetStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * How hard to cut back on fetching, given the usage so far and the current connection.
+     * If background data is restricted for the app, nothing can be fetched anyway, so that
+     * counts as {@code STOPPED}.
+     *
+     * @param now current time
+     * @return the current level
+     */
+    public DataBudget.Level getLevel(long now) {
+        NetworkInfo info = connectivity.getActiveNetworkInfo();
+        if (info != null && info.getDetailedState() == NetworkInfo.DetailedState.BLOCKED) {
+            return DataBudget.Level.STOPPED;
+        }
+        boolean roaming = info != null && info.isRoaming();
+        return budget.getLevel(now, connectivity.isActiveNetworkMetered(), roaming);
+    }
+
+    /**
+     * @return true if the current connection is metered, so fetches count against the caps
+     */
+    public boolean isMetered() {
+        return connectivity.isActiveNetworkMetered();
+    }
+
+    /**
+     * Take a reading of the app's traffic, before a fetch.
+     *
+     * @return bytes sent and received by the app so far, or {@code TrafficStats.UNSUPPORTED}
+     */
+    public long startMeasuring() {
+        return getTraffic();
+    }
+
+    /**
+     * Count a fetch against the caps, if it was made over a metered connection. The app's
+     * traffic since {@link #startMeasuring()} is used where it's known, as it includes
+     * headers and TLS overhead; otherwise, the response sizes.
+     *
+     * @param metered whether the connection was metered when the fetch started
+     * @param startTraffic the reading taken before the fetch
+     * @param responseBytes sizes of the responses received
+     * @param now time of the fetch
+     */
+    public synchronized void record(boolean metered, long startTraffic, long responseBytes, long now) {
+        if (!metered) return;
+
+        long bytes = responseBytes;
+        long endTraffic = getTraffic();
+        if (startTraffic != TrafficStats.UNSUPPORTED && endTraffic != TrafficStats.UNSUPPORTED
+                && endTraffic >= startTraffic) {
+            bytes = Math.max(bytes, endTraffic - startTraffic);
+        }
+        budget.record(bytes, now);
+
+        counts.edit()
+                .putInt(DAY_KEY, budget.getDay())
+                .putLong(DAY_BYTES_KEY, budget.getDayBytes(now))
+                .putInt(MONTH_KEY, budget.getMonth())
+                .putLong(MONTH_BYTES_KEY, budget.getMonthBytes(now))
+                .apply();
+    }
+
+    /**
+     * @param now current time
+     * @return metered bytes used today
+     */
+    public long getDayBytes(long now) {
+        return budget.getDayBytes(now);
+    }
+
+    /**
+     * @param now current time
+     * @return metered bytes used this month
+     */
+    public long getMonthBytes(long now) {
+        return budget.getMonthBytes(now);
+    }
+
+    /**
+     * @return bytes sent and received by the app, or {@code TrafficStats.UNSUPPORTED}
+     */
+    private long getTraffic() {
+        long rx = TrafficStats.getUidRxBytes(uid);
+        long tx = TrafficStats.getUidTxBytes(uid);
+        if (rx == TrafficStats.UNSUPPORTED || tx == TrafficStats.UNSUPPORTED) {
+            return TrafficStats.UNSUPPORTED;
+        }
+        return rx + tx;
+    }
+
+    /**
+     * Read the caps from the settings.
+     */
+    private void readCaps() {
+        budget.setCaps(readCap(DAILY_CAP_PREF), readCap(MONTHLY_CAP_PREF));
+    }
+
+    /**
+     * @return the cap under the supplied key, in bytes; 0 if unset
+     */
+    private long readCap(String key) {
+        String value = prefs.getString(key, "0");
+        try {
+            return Long.parseLong(value) * BYTES_PER_MB;
+        } catch (NumberFormatException nfe) {
+            Log.w(TAG, "Ignoring bad data cap " + value);
+            return 0;
+        }
+    }
+}
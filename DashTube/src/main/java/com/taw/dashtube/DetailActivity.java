@@ -17,31 +17,49 @@
 package com.taw.dashtube;
 
 import android.app.ListActivity;
+import android.app.LoaderManager;
+import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.content.Loader;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.text.format.DateFormat;
+import android.text.format.DateUtils;
 import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.TextView;
-import com.taw.dashtube.model.ArrayOfLineStatus;
-import com.taw.dashtube.model.LineStatus;
+import android.widget.Toast;
+import com.taw.dashtube.model.Favourites;
+import com.taw.dashtube.model.PlannedWorks;
+import com.taw.dashtube.model.StatusSnapshot;
 import com.taw.dashtube.model.Tube;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.io.IOException;
+import java.util.Date;
 
 /**
  * Dialog-styled activity that details the (possibly favourite) filtered lines
  * together with their status. This will be displayed over the user's launcher,
  * so we take some unusual (for an activity) steps of making sure it doesn't show up
  * in the recent apps list and so on; in the manifest excludeFromRecents = 'true'.
+ *
+ * The user can refresh the statuses from here; the {@link StatusCoordinator} fetches them,
+ * joining any fetch already in progress, and tells us when they're in so we can reload.
  */
-public class DetailActivity extends ListActivity {
+public class DetailActivity extends ListActivity
+        implements LoaderManager.LoaderCallbacks<DetailActivity.Details>, StatusCoordinator.Listener {
+
+    /** ID of the loader supplying the list contents. */
+    private static final int DETAILS_LOADER = 0;
+
+    /** How far ahead to list planned works. */
+    private static final long PLANNED_WORKS_HORIZON_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    /** Adapter for the list; empty until the loader delivers. */
+    private DetailListAdapter adapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -49,18 +67,87 @@ public class DetailActivity extends ListActivity {
 
         setContentView(R.layout.detail_list_view);
 
-        String xml = getIntent().getStringExtra(DashTubeExtension.TUBE_STATUS_XML);
+        adapter = new DetailListAdapter(this);
+        setListAdapter(adapter);
 
-        // Shouldn't ever have an empty or null list at this point
-        ArrayOfLineStatus result = DashTubeUtils.parseTubeLineStatusResponse(xml);
-        ArrayList<LineStatus> filteredResults = DashTubeUtils.getFilteredResults(this, result);
+        // The title depends on the favourites, so is set once the loader has read them
+        setupWindow();
 
-        setListAdapter(new DetailListAdapter(this, R.layout.detail_list_item, filteredResults));
+        // If the extension's results are already in memory we can show when they were fetched
+        // straight away; otherwise it's filled in along with the list
+        StatusCache cache = StatusCache.getInstance();
+        if (cache.isPopulated() && cache.getSnapshotId() >= getSnapshotId()) {
+            setUpdatedAt(cache.getTimestamp());
+        }
 
-        setupWindow();
+        // The loader is retained across configuration changes, so a rotation redelivers the
+        // results it already has rather than loading them again
+        getLoaderManager().initLoader(DETAILS_LOADER, null, this);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        StatusCoordinator.getInstance(this).addListener(this);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        StatusCoordinator.getInstance(this).removeListener(this);
+    }
+
+    @Override
+    public void onStatusRefreshed(IOException failure, Favourites favourites) {
+        if (failure != null) {
+            Toast.makeText(this, StatusCoordinator.getErrorMessage(failure), Toast.LENGTH_SHORT).show();
+        }
+        // Whether or not anything changed, the time of the statuses has
+        getLoaderManager().restartLoader(DETAILS_LOADER, null, this);
+    }
+
+    @Override
+    public Loader<Details> onCreateLoader(int id, Bundle args) {
+        return new DetailsLoader(this, getSnapshotId());
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Details> loader, Details details) {
+        setUpdatedAt(details.timestamp);
+        setTitle(!details.preferredLines.isEmpty()
+                ? R.string.expanded_title_filtered
+                : R.string.expanded_title);
+
+        adapter.setLines(details.snapshot, details.slots, details.since);
+        setPlannedWorks(details.plannedWorks, details.upcoming);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Details> loader) {
+        adapter.setLines(StatusSnapshot.EMPTY, new int[0], new long[0]);
+    }
+
+    /**
+     * @return ID of the snapshot the extension published, from the launching intent
+     */
+    private long getSnapshotId() {
+        return getIntent().getLongExtra(DashTubeExtension.TUBE_STATUS_SNAPSHOT_ID, 0);
     }
 
+    /**
+     * Handle user clicking on the dialog Refresh button. The list is reloaded once the
+     * coordinator reports back.
+     *
+     * @param view The view that received the event
+     */
+    public void refresh(View view) {
+        TextView time = (TextView) findViewById(R.id.updated_at);
+        time.setText(R.string.refreshing);
 
+        StatusCoordinator.getInstance(this).requestRefresh(0);
+    }
 
     /**
      * Handle user clicking on the dialog OK button. Finishes the activity.
@@ -72,8 +159,7 @@ public class DetailActivity extends ListActivity {
     }
 
     /**
-     * Sets up the window - slot in the updated time as provided in the intent that starts this
-     * activity, and size the dialog box width, particularly for a better appearance on 7" screens.
+     * Sets up the window - size the dialog box width, particularly for a better appearance on 7" screens.
      * Currently we adjust the dialog width to 2/3 of the window width and 3/5 of the height
      * if we're on a 7" - 10" tablet. This means under some circumstances (e.g. only one or two lines
      * have issues) the list will have blank space below it, before the dialog OK button is
@@ -97,22 +183,46 @@ public class DetailActivity extends ListActivity {
         params.dimAmount = 0.0f;
 
         getWindow().setAttributes(params);
+    }
 
-        // Set dialog title
-        Set<String> preferredLines =
-                PreferenceManager.getDefaultSharedPreferences(this).getStringSet(DashTubeExtension.FAVOURITE_LINES_PREF, null);
-        setTitle((preferredLines != null && preferredLines.size() > 0)
-                ? R.string.expanded_title_filtered
-                : R.string.expanded_title);
-
-        // Updated time text
+    /**
+     * Slot in the time the results were last updated.
+     *
+     * @param timestamp when the results were last updated
+     */
+    private void setUpdatedAt(long timestamp) {
         String updatedStr = String.format(getString(R.string.updated_at),
-                getIntent().getStringExtra(DashTubeExtension.TUBE_STATUS_TIMESTAMP));
+                DateFormat.getTimeFormat(this).format(new Date(timestamp)));
 
         TextView time = (TextView) findViewById(R.id.updated_at);
         time.setText(updatedStr);
     }
 
+    /**
+     * List the upcoming planned works, or hide the list if there are none.
+     *
+     * @param works planned works
+     * @param upcoming indices of the works to list, in start order
+     */
+    private void setPlannedWorks(PlannedWorks works, int[] upcoming) {
+        TextView view = (TextView) findViewById(R.id.planned_works);
+        if (upcoming.length == 0) {
+            view.setVisibility(View.GONE);
+            return;
+        }
+
+        StringBuilder text = new StringBuilder(getString(R.string.planned_works_title));
+        for (int index : upcoming) {
+            String period = DateUtils.formatDateRange(this, works.getFrom(index), works.getTo(index),
+                    DateUtils.FORMAT_SHOW_WEEKDAY | DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME
+                            | DateUtils.FORMAT_ABBREV_ALL);
+            text.append('\n').append(getString(R.string.planned_work,
+                    works.getLine(index).getName(), works.getDescription(index), period));
+        }
+        view.setText(text);
+        view.setVisibility(View.VISIBLE);
+    }
+
     /**
      * Checks if we are running on a small tablet (e.g. between 7" - 10"). See link below,
      * but anything around 600dp is generally a 7" tablet; see link for more details.
@@ -127,9 +237,120 @@ public class DetailActivity extends ListActivity {
     }
 
     /**
-     * Custom adapter for displaying {@code LineStatus} objects in the details list.
+     * What the loader delivers: the lines to show, when they were fetched, how long their
+     * statuses have stood, upcoming planned works, and the favourites they were chosen by.
+     */
+    static class Details {
+        /** The line statuses. */
+        final StatusSnapshot snapshot;
+        /** Slots of the filtered results to list, in display order. */
+        final int[] slots;
+        /** When the results were last updated. */
+        final long timestamp;
+        /** When each known line's status began, by slot; 0 if not known. */
+        final long[] since;
+        /** Planned works. */
+        final PlannedWorks plannedWorks;
+        /** Indices of the planned works to list, in start order. */
+        final int[] upcoming;
+        /** The user's favourite lines. */
+        final Favourites preferredLines;
+
+        Details(StatusSnapshot snapshot, int[] slots, long timestamp, long[] since,
+                PlannedWorks plannedWorks, int[] upcoming, Favourites preferredLines) {
+            this.snapshot = snapshot;
+            this.slots = slots;
+            this.timestamp = timestamp;
+            this.since = since;
+            this.plannedWorks = plannedWorks;
+            this.upcoming = upcoming;
+            this.preferredLines = preferredLines;
+        }
+    }
+
+    /**
+     * Loads the results to show off the UI thread. The extension has already parsed and
+     * filtered them into the shared cache, unless our process has been restarted since, in
+     * which case they're read from the snapshot on disk; and if the user's favourites have
+     * changed since, they're filtered again. When each line's status began is looked up in
+     * the status history, and the coming week's works on the lines of interest in the planned
+     * works the extension fetched.
+     */
+    private static class DetailsLoader extends AsyncTaskLoader<Details> {
+
+        /** ID of the snapshot the extension published. */
+        private final long snapshotId;
+
+        /** Last results delivered, redelivered when the activity is recreated. */
+        private Details details;
+
+        private DetailsLoader(Context context, long snapshotId) {
+            // Hold the application context only; the loader outlives the activity
+            super(context.getApplicationContext());
+            this.snapshotId = snapshotId;
+        }
+
+        @Override
+        public Details loadInBackground() {
+            Context context = getContext();
+            StatusCache cache = StatusCache.getInstance();
+            if (!cache.isPopulated() || cache.getSnapshotId() < snapshotId) {
+                new StatusSnapshotStore(context).load(cache);
+            }
+
+            long[] since = new long[StatusSnapshot.UNKNOWN];
+            StatusHistoryStore.getInstance(context).getSince(since);
+
+            Favourites preferredLines = FavouritesStore.getInstance(context).get();
+            PlannedWorks works = PlannedWorksStore.getInstance(context).get();
+            long now = System.currentTimeMillis();
+            int[] upcoming = works.find(preferredLines, now, now + PLANNED_WORKS_HORIZON_MS);
+
+            synchronized (cache) {
+                StatusSnapshot snapshot = cache.isPopulated() ? cache.getResult() : StatusSnapshot.EMPTY;
+                return new Details(snapshot, cache.getFilteredResults(preferredLines), cache.getTimestamp(), since,
+                        works, upcoming, preferredLines);
+            }
+        }
+
+        @Override
+        public void deliverResult(Details details) {
+            this.details = details;
+            if (isStarted()) {
+                super.deliverResult(details);
+            }
+        }
+
+        @Override
+        protected void onStartLoading() {
+            if (details != null) {
+                deliverResult(details);
+            } else {
+                forceLoad();
+            }
+        }
+
+        @Override
+        protected void onStopLoading() {
+            cancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            onStopLoading();
+            details = null;
+        }
+    }
+
+    /**
+     * Custom adapter for displaying the lines of a {@code StatusSnapshot} in the details list.
      */
-    private class DetailListAdapter extends ArrayAdapter<LineStatus> {
+    private class DetailListAdapter extends BaseAdapter {
+
+        /** Text colour for lines we have no branding for. */
+        private static final int UNKNOWN_FOREGROUND_COLOUR = 0xFFFFFFFF;
+        /** Background colour for lines we have no branding for. */
+        private static final int UNKNOWN_BACKGROUND_COLOUR = 0xC0666666;
 
         /** Context for local use. */
         private Context context;
@@ -137,13 +358,48 @@ public class DetailActivity extends ListActivity {
         /** For inflating list views. */
         private LayoutInflater inflater = null;
 
+        /** Line statuses to show. */
+        private StatusSnapshot snapshot = StatusSnapshot.EMPTY;
+        /** Slots of the lines to show, in display order. */
+        private int[] slots = new int[0];
+        /** When each known line's status began, by slot; 0 if not known. */
+        private long[] since = new long[0];
+
         /** Default constructor. */
-        private DetailListAdapter(Context context, int resource, List<LineStatus> objects) {
-            super(context, resource, objects);
+        private DetailListAdapter(Context context) {
             this.context = context;
             inflater = (LayoutInflater) this.context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         }
 
+        /**
+         * Replace the lines shown.
+         *
+         * @param snapshot line statuses
+         * @param slots slots of the lines to show, in display order
+         * @param since when each known line's status began, by slot; 0 if not known
+         */
+        private void setLines(StatusSnapshot snapshot, int[] slots, long[] since) {
+            this.snapshot = snapshot;
+            this.slots = slots;
+            this.since = since;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            return slots.length;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return snapshot.getId(slots[position]);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return slots[position];
+        }
+
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
             ViewHolder holder;
@@ -159,14 +415,20 @@ public class DetailActivity extends ListActivity {
                 holder = (ViewHolder) convertView.getTag();
             }
 
-            LineStatus lineStatus = getItem(position);
+            int slot = slots[position];
+            Tube tube = snapshot.getTube(slot);
 
-            Tube tube = Tube.LINE_MAP.get(lineStatus.line.id);
-            holder.line.setText(tube.getName() + " - " + lineStatus.status.description);
-            holder.line.setBackgroundColor(tube.getBackgroundColour());
-            holder.line.setTextColor(tube.getForegroundColour());
+            String status = snapshot.getName(slot) + " - " + snapshot.getDescription(slot);
+            if (slot < since.length && since[slot] > 0) {
+                status = context.getString(R.string.status_since, status, DateUtils.formatSameDayTime(
+                        since[slot], System.currentTimeMillis(), java.text.DateFormat.SHORT, java.text.DateFormat.SHORT));
+            }
+            holder.line.setText(status);
+            holder.line.setBackgroundColor(tube != null ? tube.getBackgroundColour() : UNKNOWN_BACKGROUND_COLOUR);
+            holder.line.setTextColor(tube != null ? tube.getForegroundColour() : UNKNOWN_FOREGROUND_COLOUR);
 
-            holder.description.setText(lineStatus.statusDetails.trim());
+            String details = snapshot.getDetails(slot);
+            holder.description.setText(details != null ? details.trim() : "");
 
             return convertView;
         }
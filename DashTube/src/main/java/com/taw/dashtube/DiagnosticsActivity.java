@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import java.io.IOException;
+
+/**
+ * Shows where recent update cycles spent their time, and what they cost, from the
+ * {@link UpdateMetrics} the extension records: counts of each outcome, bytes received,
+ * and percentiles of each stage's time. The report, along with the individual cycles as
+ * CSV, can be exported with any app that accepts text, e.g. to attach to a bug report.
+ *
+ * Reached from the settings.
+ */
+public class DiagnosticsActivity extends Activity {
+
+    /** Report shown. */
+    private TextView report;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        setContentView(R.layout.diagnostics_view);
+        getActionBar().setDisplayHomeAsUpEnabled(true);
+
+        report = (TextView) findViewById(R.id.diagnostics_report);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        showReport();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.diagnostics_menu, menu);
+
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case android.R.id.home:
+                finish();
+                return true;
+            case R.id.menu_refresh:
+                showReport();
+                return true;
+            case R.id.menu_export:
+                export();
+                return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Summarise the cycles recorded so far.
+     */
+    private void showReport() {
+        UpdateMetrics.Summary summary = UpdateMetrics.getInstance().summarise();
+        if (summary.getCycles() == 0) {
+            report.setText(R.string.diagnostics_empty);
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        try {
+            summary.writeReport(text);
+        } catch (IOException ioe) {
+            // Can't happen with a StringBuilder
+        }
+        report.setText(text);
+    }
+
+    /**
+     * Send the report and the individual cycles to whichever app the user picks.
+     */
+    private void export() {
+        UpdateMetrics metrics = UpdateMetrics.getInstance();
+        StringBuilder text = new StringBuilder();
+        try {
+            metrics.summarise().writeReport(text);
+            text.append('\n');
+            metrics.writeCsv(text);
+        } catch (IOException ioe) {
+            // Can't happen with a StringBuilder
+        }
+
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("text/plain");
+        send.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.diagnostics_export_subject));
+        send.putExtra(Intent.EXTRA_TEXT, text.toString());
+        startActivity(Intent.createChooser(send, getString(R.string.diagnostics_export)));
+    }
+}
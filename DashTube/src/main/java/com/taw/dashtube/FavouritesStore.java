@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import com.taw.dashtube.model.Favourites;
+
+import java.util.Set;
+
+/**
+ * Process-wide holder for the user's favourite lines. The {@code FAVOURITE_LINES_PREF}
+ * string set is read and converted to a {@link Favourites} bitmask once, then kept until
+ * a preference change listener reports that it has been edited; the extension, the detail
+ * activity and the favourites dialog all read it from here rather than from preferences.
+ */
+public class FavouritesStore {
+
+    /** The single instance, created on first use. */
+    private static FavouritesStore instance;
+
+    /** Default shared preferences. */
+    private final SharedPreferences prefs;
+
+    /**
+     * Invalidates the cached favourites when they're edited. SharedPreferences only holds
+     * weak references to its listeners, so we keep this one.
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener listener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (DashTubeExtension.FAVOURITE_LINES_PREF.equals(key)) {
+                        synchronized (FavouritesStore.this) {
+                            favourites = null;
+                        }
+                    }
+                }
+            };
+
+    /** Current favourites; null if they need reading from preferences. */
+    private volatile Favourites favourites;
+
+    private FavouritesStore(Context context) {
+        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * @param context any context; only the application context is held on to
+     * @return the process-wide store
+     */
+    public static synchronized FavouritesStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new FavouritesStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * @return the user's favourite lines; {@code Favourites.NONE} if none are set
+     */
+    public Favourites get() {
+        Favourites current = favourites;
+        if (current != null) return current;
+
+        // Read under the lock, so an edit landing part way through can't be overwritten
+        // with what we read before it
+        synchronized (this) {
+            if (favourites == null) {
+                Set<String> ids = prefs.getStringSet(DashTubeExtension.FAVOURITE_LINES_PREF, null);
+                favourites = Favourites.fromIds(ids);
+            }
+            return favourites;
+        }
+    }
+}
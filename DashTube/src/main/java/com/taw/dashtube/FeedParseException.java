@@ -14,16 +14,20 @@
  * limitations under the License.
  */
 
-package com.taw.dashtube.model;
 
-import com.google.api.client.util.Key;
+package com.taw.dashtube;
 
-import java.util.ArrayList;
+import java.io.IOException;
 
 /**
- * Simple class encapsulating the {@code ArrayOfLineStatus} element.
+ * Thrown when a feed response was received but couldn't be parsed; the details have
+ * already been logged by the parser.
  */
-public class ArrayOfLineStatus {
-    @Key("LineStatus")
-    public ArrayList<LineStatus> status;
+public class FeedParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public FeedParseException() {
+        super("Could not parse status response");
+    }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.google.api.client.http.GenericUrl;
+import com.taw.dashtube.model.StatusSnapshot;
+
+import java.io.InputStream;
+
+/**
+ * Somewhere line statuses can be fetched from: the document to request, and how to parse
+ * the response into a {@link StatusSnapshot}.
+ */
+public interface FeedSource {
+
+    /**
+     * @return URL of the document to request
+     */
+    GenericUrl getUrl();
+
+    /**
+     * Parse a response body. The stream is not closed.
+     *
+     * @param in response body, decompressed and with any BOM removed
+     * @return the line statuses, or null if there was a problem parsing (which is logged)
+     */
+    StatusSnapshot parse(InputStream in);
+}
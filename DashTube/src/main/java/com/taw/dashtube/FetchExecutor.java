@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.api.client.http.HttpResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Runs status fetches with retries and a {@link CircuitBreaker}. Transient failures - I/O
+ * errors, timeouts and server errors - are retried a few times with jittered exponential
+ * backoff, as long as the retry can start within the deadline; failures that won't go away
+ * on their own (client errors, unparseable responses) aren't, and nor are failures to
+ * resolve or reach the host, which usually mean the device is offline, and retrying would
+ * only keep the radio up to fail again. Each call's outcome counts
+ * once towards the circuit breaker, which refuses calls outright while the feed looks to
+ * be down.
+ *
+ * Fetches run on the thread that asked for them - DashClock's worker thread, or the
+ * coordinator's background thread - so waiting between retries just blocks it.
+ */
+public class FetchExecutor {
+
+    /** Logging tag. */
+    private static final String TAG = "DashTubeFetch";
+
+    /** Most attempts per call, including the first. */
+    private static final int MAX_ATTEMPTS = 3;
+    /** Delay bound for the first retry, in ms. */
+    private static final long BASE_DELAY_MS = 1000;
+    /** Upper limit on the delay bound, in ms. */
+    private static final long MAX_DELAY_MS = 8 * 1000;
+    /** No retry is started later than this after the call began, in ms. */
+    private static final long DEADLINE_MS = 30 * 1000;
+
+    /** Consecutive failed calls that open the circuit. */
+    private static final int FAILURE_THRESHOLD = 3;
+    /** Cool-off after the circuit first opens, in ms. */
+    private static final long INITIAL_OPEN_MS = 5 * 60 * 1000;
+    /** Longest cool-off, in ms. */
+    private static final long MAX_OPEN_MS = 60 * 60 * 1000;
+
+    /** HTTP status codes worth retrying despite being client errors: Request Timeout and Too Many Requests. */
+    private static final int STATUS_REQUEST_TIMEOUT = 408;
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * A fetch to run.
+     *
+     * @param <T> result type
+     */
+    public interface Fetch<T> {
+        T run() throws IOException;
+    }
+
+    /** Thrown instead of making a request while the circuit is open. */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException() {
+            super("Circuit open; not fetching");
+        }
+    }
+
+    /** Delays between retries. */
+    private final Backoff backoff = new Backoff(BASE_DELAY_MS, MAX_DELAY_MS, new Random());
+    /** Tracks whether the feed looks to be down. */
+    private final CircuitBreaker breaker = new CircuitBreaker(FAILURE_THRESHOLD, INITIAL_OPEN_MS, MAX_OPEN_MS);
+
+    /**
+     * Run the fetch, retrying transient failures.
+     *
+     * @param fetch fetch to run
+     * @return the fetch's result
+     * @throws CircuitOpenException if the circuit is open, in which case the fetch isn't run
+     * @throws IOException the last failure, if no attempt succeeded
+     */
+    public <T> T execute(Fetch<T> fetch) throws IOException {
+        if (!breaker.allowRequest(System.currentTimeMillis())) {
+            throw new CircuitOpenException();
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        int attempt = 0;
+        while (true) {
+            try {
+                T result = fetch.run();
+                breaker.recordSuccess();
+                return result;
+            } catch (IOException ioe) {
+                long delay = backoff.getDelay(attempt);
+                attempt++;
+                if (attempt >= MAX_ATTEMPTS || !isTransient(ioe)
+                        || SystemClock.elapsedRealtime() + delay - start > DEADLINE_MS) {
+                    breaker.recordFailure(System.currentTimeMillis());
+                    throw ioe;
+                }
+
+                Log.w(TAG, "Fetch failed; retrying in " + delay + "ms", ioe);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    breaker.recordFailure(System.currentTimeMillis());
+                    throw new InterruptedIOException("Interrupted while waiting to retry");
+                }
+            } catch (RuntimeException re) {
+                // Don't leave a half-open circuit waiting on a probe that will never report
+                breaker.recordFailure(System.currentTimeMillis());
+                throw re;
+            }
+        }
+    }
+
+    /**
+     * @param ioe a failure
+     * @return true if the same request might succeed if tried again shortly
+     */
+    private static boolean isTransient(IOException ioe) {
+        if (ioe instanceof FeedParseException) {
+            return false;
+        }
+        if (ioe instanceof UnknownHostException || ioe instanceof ConnectException
+                || ioe instanceof NoRouteToHostException) {
+            // No connection; DashClock's next update will try again
+            return false;
+        }
+        if (ioe instanceof HttpResponseException) {
+            int status = ((HttpResponseException) ioe).getStatusCode();
+            return status >= 500 || status == STATUS_REQUEST_TIMEOUT || status == STATUS_TOO_MANY_REQUESTS;
+        }
+        return true;
+    }
+}
@@ -65,7 +65,7 @@ public class LimitedMultiSelectDialogPreference extends DialogPreference {
 
         this.context = context;
 
-        // TODO: references array XML here, but Tube enum elsewhere; will consolidate
+        // Generated from the same line definitions as the Tube enum, in display order
         lineNames = context.getResources().getStringArray(R.array.line_names);
         lineCodes = context.getResources().getStringArray(R.array.line_codes);
 
@@ -143,7 +143,7 @@ public class LimitedMultiSelectDialogPreference extends DialogPreference {
     private ArrayList<TubeLine> generateAdapterData() {
         if (selectedValues.size() == 0) {
             // First show of dialog - get them from shared prefs
-            selectedValues.addAll(PreferenceManager.getDefaultSharedPreferences(context).getStringSet(DashTubeExtension.FAVOURITE_LINES_PREF, new HashSet<String>()));
+            selectedValues.addAll(FavouritesStore.getInstance(context).get().toIds());
         }
 
         ArrayList<TubeLine> tubeLines = new ArrayList<TubeLine>();
@@ -14,16 +14,19 @@
  * limitations under the License.
  */
 
-package com.taw.dashtube.model;
+package com.taw.dashtube;
 
-import com.google.api.client.util.Key;
+import java.io.IOException;
 
 /**
- * Simple class encapsulating the {@code Line} element.
+ * Thrown instead of fetching when the user's data cap has been reached, or background
+ * data is restricted; see {@link DataBudgetStore}.
  */
-public class Line {
-    @Key("@ID")
-    public String id;
-    @Key("@Name")
-    public String name;
+public class OverBudgetException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public OverBudgetException() {
+        super("Data cap reached; not fetching");
+    }
 }
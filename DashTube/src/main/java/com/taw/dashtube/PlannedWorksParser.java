@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import com.taw.dashtube.model.PlannedWorks;
+import com.taw.dashtube.model.Tube;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Streaming decoder for the Unified API's {@code /Line/{ids}/Status/{from}/to/{to}}
+ * response - the same array of lines as {@link UnifiedStatusParser} reads, but with the
+ * statuses planned over a date range, each with the periods it's in effect. Every
+ * disruption's periods become works in a {@link PlannedWorks}; good service and lines the
+ * {@link Tube} enum doesn't know are skipped.
+ */
+public class PlannedWorksParser {
+
+    /** Field names of interest. */
+    private static final String ID = "id";
+    private static final String LINE_STATUSES = "lineStatuses";
+    private static final String STATUS_SEVERITY = "statusSeverity";
+    private static final String STATUS_SEVERITY_DESCRIPTION = "statusSeverityDescription";
+    private static final String REASON = "reason";
+    private static final String VALIDITY_PERIODS = "validityPeriods";
+    private static final String FROM_DATE = "fromDate";
+    private static final String TO_DATE = "toDate";
+
+    /** Severities that aren't disruptions: Good Service, No Issues and Information. */
+    private static final int GOOD_SERVICE = 10;
+    private static final int NO_ISSUES = 18;
+    private static final int INFORMATION = 19;
+
+    /** The API's timestamps, which are UTC; any fraction or zone suffix is ignored. */
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+    /** Length of a timestamp without fraction or suffix. */
+    private static final int DATE_LENGTH = 19;
+
+    public PlannedWorksParser() {
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Parse the response from the supplied stream, which is UTF-8 as the API always is. The
+     * stream is not closed.
+     *
+     * @param in stream containing the response
+     * @return the planned works
+     */
+    public PlannedWorks parse(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        PlannedWorks.Builder builder = new PlannedWorks.Builder();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            parseLine(reader, builder);
+        }
+        reader.endArray();
+
+        return builder.build();
+    }
+
+    /**
+     * Parse a line object into the builder. The line's ID can come after its statuses, so
+     * they're parsed into a builder of their own first.
+     */
+    private void parseLine(JsonReader reader, PlannedWorks.Builder builder) throws IOException {
+        Tube tube = null;
+        LineWorks works = new LineWorks();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (ID.equals(field)) {
+                tube = Tube.forUnifiedId(nextString(reader));
+            } else if (LINE_STATUSES.equals(field) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    parseLineStatus(reader, works);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (tube != null) {
+            for (int i = 0; i < works.count; i++) {
+                builder.add(tube, works.from[i], works.to[i], works.descriptions[i], works.details[i]);
+            }
+        }
+    }
+
+    /**
+     * Parse one of a line's statuses, adding a work for each of its periods if it's a disruption.
+     */
+    private void parseLineStatus(JsonReader reader, LineWorks works) throws IOException {
+        int severity = GOOD_SERVICE;
+        String description = null;
+        String reason = null;
+        int first = works.count;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (STATUS_SEVERITY.equals(field) && reader.peek() == JsonToken.NUMBER) {
+                severity = reader.nextInt();
+            } else if (STATUS_SEVERITY_DESCRIPTION.equals(field)) {
+                description = nextString(reader);
+            } else if (REASON.equals(field)) {
+                reason = nextString(reader);
+            } else if (VALIDITY_PERIODS.equals(field) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    parsePeriod(reader, works);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (severity == GOOD_SERVICE || severity == NO_ISSUES || severity == INFORMATION) {
+            // Not a disruption; drop its periods
+            works.count = first;
+            return;
+        }
+        // The description and reason can come after the periods
+        for (int i = first; i < works.count; i++) {
+            works.descriptions[i] = description;
+            works.details[i] = reason;
+        }
+    }
+
+    /**
+     * Parse a validity period, adding it as a work if both ends can be read.
+     */
+    private void parsePeriod(JsonReader reader, LineWorks works) throws IOException {
+        long from = -1;
+        long to = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (FROM_DATE.equals(field)) {
+                from = parseDate(nextString(reader));
+            } else if (TO_DATE.equals(field)) {
+                to = parseDate(nextString(reader));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (from >= 0 && to > from) {
+            works.add(from, to);
+        }
+    }
+
+    /**
+     * @return the timestamp in ms since the epoch, or -1 if it can't be read
+     */
+    private long parseDate(String date) {
+        if (date == null || date.length() < DATE_LENGTH) return -1;
+
+        try {
+            return dateFormat.parse(date.substring(0, DATE_LENGTH)).getTime();
+        } catch (ParseException pe) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the next value as a string, or null if it's null
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Works found for one line.
+     */
+    private static class LineWorks {
+        int count;
+        long[] from = new long[4];
+        long[] to = new long[4];
+        String[] descriptions = new String[4];
+        String[] details = new String[4];
+
+        void add(long start, long end) {
+            if (count == from.length) {
+                from = Arrays.copyOf(from, count * 2);
+                to = Arrays.copyOf(to, count * 2);
+                descriptions = Arrays.copyOf(descriptions, count * 2);
+                details = Arrays.copyOf(details, count * 2);
+            }
+            from[count] = start;
+            to[count] = end;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+import android.content.Context;
+import android.util.Log;
+import com.taw.dashtube.model.PlannedWorks;
+import com.taw.dashtube.model.Tube;
+
+import java.io.*;
+
+/**
+ * Process-wide holder for the planned works fetched once a day, kept in memory and in app
+ * storage. The extension refreshes it when it's due and checks live statuses against it;
+ * the detail activity lists upcoming works from it, without going to the network.
+ *
+ * The file is written to a temporary file, synced and renamed into place, as
+ * {@link StatusSnapshotStore} does.
+ */
+public class PlannedWorksStore {
+
+    /** Logging tag. */
+    private static final String TAG = "DashTubePlannedWorks";
+
+    /** File name, in the app's files directory. */
+    private static final String FILENAME = "planned.works";
+    /** Identifies a planned works file ("DTPW"). */
+    private static final int MAGIC = 0x44545057;
+    /** Format version; bump when the layout below changes, and old files will be ignored. */
+    private static final int VERSION = 1;
+
+    /** How often to refresh. */
+    private static final long REFRESH_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+    /** How long to wait after a failed refresh before trying again. */
+    private static final long RETRY_INTERVAL_MS = 60 * 60 * 1000L;
+
+    /** The single instance, created on first use. */
+    private static PlannedWorksStore instance;
+
+    /** Planned works file. */
+    private final File file;
+
+    /** Current works; null until loaded from the file. */
+    private PlannedWorks works;
+    /** When the works were last fetched; 0 if never. */
+    private long fetchedAt;
+    /** CRC32 checksum of the response they were parsed from. */
+    private long checksum;
+    /** When a refresh was last attempted, successful or not; not persisted. */
+    private long attemptedAt;
+
+    private PlannedWorksStore(Context context) {
+        file = new File(context.getFilesDir(), FILENAME);
+    }
+
+    /**
+     * @param context any context; only used to find app storage
+     * @return the process-wide store
+     */
+    public static synchronized PlannedWorksStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new PlannedWorksStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * @return the current planned works; {@code PlannedWorks.EMPTY} if there are none
+     */
+    public synchronized PlannedWorks get() {
+        if (works == null) {
+            load();
+        }
+        return works;
+    }
+
+    /**
+     * @param now current time
+     * @return true if the works should be fetched again
+     */
+    public synchronized boolean isDue(long now) {
+        get();
+        return now - fetchedAt >= REFRESH_INTERVAL_MS && now - attemptedAt >= RETRY_INTERVAL_MS;
+    }
+
+    /**
+     * Note that a refresh is being attempted, so a failing one isn't retried straight away.
+     *
+     * @param now current time
+     */
+    public synchronized void attempted(long now) {
+        attemptedAt = now;
+    }
+
+    /**
+     * @param checksum checksum of a newly fetched response
+     * @return true if it's the response the current works came from
+     */
+    public synchronized boolean matches(long checksum) {
+        return fetchedAt != 0 && this.checksum == checksum;
+    }
+
+    /**
+     * Note that the current works have been confirmed as up to date.
+     *
+     * @param now time of the fetch
+     */
+    public synchronized void confirm(long now) {
+        fetchedAt = now;
+        save();
+    }
+
+    /**
+     * Replace the current works.
+     *
+     * @param works newly fetched works
+     * @param checksum checksum of the response they were parsed from
+     * @param now time of the fetch
+     */
+    public synchronized void update(PlannedWorks works, long checksum, long now) {
+        this.works = works;
+        this.checksum = checksum;
+        fetchedAt = now;
+        save();
+    }
+
+    private void load() {
+        works = PlannedWorks.EMPTY;
+        if (!file.exists()) return;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            long fetched = in.readLong();
+            long crc = in.readLong();
+
+            PlannedWorks.Builder builder = new PlannedWorks.Builder();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int line = in.readByte();
+                long from = in.readLong();
+                long to = in.readLong();
+                String description = readNullableString(in);
+                String details = readNullableString(in);
+                if (line >= 0 && line < Tube.COUNT) {
+                    builder.add(Tube.forOrdinal(line), from, to, description, details);
+                }
+            }
+
+            works = builder.build();
+            fetchedAt = fetched;
+            checksum = crc;
+        } catch (IOException ioe) {
+            Log.w(TAG, "Could not read planned works", ioe);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fetchedAt);
+            out.writeLong(checksum);
+            out.writeInt(works.size());
+            for (int i = 0; i < works.size(); i++) {
+                out.writeByte(works.getLine(i).ordinal());
+                out.writeLong(works.getFrom(i));
+                out.writeLong(works.getTo(i));
+                writeNullableString(out, works.getDescription(i));
+                writeNullableString(out, works.getDetails(i));
+            }
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            fos = null;
+
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Could not replace planned works");
+                tmp.delete();
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "Could not write planned works", ioe);
+            closeQuietly(fos);
+            tmp.delete();
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String str) throws IOException {
+        out.writeBoolean(str != null);
+        if (str != null) {
+            out.writeUTF(str);
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null) return;
+
+        try {
+            c.close();
+        } catch (IOException ioe) {
+            // Nothing to be done
+        }
+    }
+}
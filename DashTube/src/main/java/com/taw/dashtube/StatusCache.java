@@ -0,0 +1,298 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.google.android.apps.dashclock.api.ExtensionData;
+import com.taw.dashtube.model.Favourites;
+import com.taw.dashtube.model.StatusSnapshot;
+
+/**
+ * Process-wide store for the result of the last successful status fetch - the response
+ * validators (ETag and Last-Modified), a hash of the response body, its parsed and filtered
+ * forms, when it was fetched, and the {@code ExtensionData} we generated from it. The extension
+ * uses it to republish unchanged feeds without parsing; the detail activity uses it to show
+ * the results the extension already filtered, looked up by the snapshot ID passed in the
+ * on-tap intent.
+ *
+ * The cache can also be restored from a {@link StatusSnapshotStore} snapshot, in which case
+ * it is marked as stale until the next successful fetch.
+ *
+ * The {@link StatusCoordinator} updates the cache on whichever thread asked for a fetch while
+ * the detail activity and widget read it on the UI thread, so access is synchronized; callers combining several calls should hold the
+ * cache's lock.
+ */
+public class StatusCache {
+
+    /** Filtered results when there are none. */
+    private static final int[] NO_RESULTS = new int[0];
+
+    /** The single instance. */
+    private static final StatusCache instance = new StatusCache();
+
+    /** URL the last response was fetched from; null if restored from a snapshot without one. */
+    private String url;
+    /** ETag of the last response, if the server sent one. */
+    private String etag;
+    /** Last-Modified of the last response, if the server sent one. */
+    private String lastModified;
+    /** CRC32 checksum of the last response body. */
+    private long bodyChecksum;
+    /** The last response body, BOM removed, for confirming matches; null if restored from a snapshot. */
+    private byte[] body;
+    /** The parsed response. */
+    private StatusSnapshot result;
+    /**
+     * Identifies the cached result; this is the time it was first fetched, and is not changed
+     * when later responses confirm it's unchanged.
+     */
+    private long snapshotId;
+    /** When the result was last fetched or confirmed, in ms since the epoch. */
+    private long timestamp;
+    /** Data published for the last response; may legitimately be null (no problems to report). */
+    private ExtensionData data;
+    /** Slots of the result, filtered against the favourites below. */
+    private int[] filteredResults = NO_RESULTS;
+    /** Favourite lines the data was filtered against; null if the data needs (re)generating. */
+    private Favourites favourites = null;
+    /** Whether the fields above have been populated. */
+    private boolean populated = false;
+    /**
+     * Whether the contents are out of date: restored from a snapshot rather than fetched by
+     * this process, or not refreshed by the last attempt.
+     */
+    private boolean stale = false;
+
+    private StatusCache() {
+    }
+
+    /**
+     * @return the process-wide cache
+     */
+    public static StatusCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return true if a previous response has been cached
+     */
+    public synchronized boolean isPopulated() {
+        return populated;
+    }
+
+    /**
+     * @return true if the contents came from a snapshot, or couldn't be refreshed, and haven't
+     *         been confirmed by a fetch since
+     */
+    public synchronized boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Check whether the supplied response body matches the cached one.
+     *
+     * @param body the new response body
+     * @return true if the cached body is the same
+     */
+    public synchronized boolean matches(FeedBuffer body) {
+        return this.body != null && bodyChecksum == body.getChecksum() && body.contentEquals(this.body);
+    }
+
+    /**
+     * Check whether the cached data was generated for the supplied favourites; if not, it
+     * needs regenerating from the cached result.
+     *
+     * @param preferredLines the user's current favourites
+     * @return true if the cached data can be republished as is
+     */
+    public synchronized boolean isDataCurrent(Favourites preferredLines) {
+        return preferredLines.equals(favourites);
+    }
+
+    /**
+     * Record the results of a successful fetch.
+     *
+     * @param url URL the response was fetched from
+     * @param etag ETag header of the response, or null
+     * @param lastModified Last-Modified header of the response, or null
+     * @param body response body; copied, so the buffer can be reused
+     * @param result the parsed response
+     * @param timestamp when the response was fetched
+     */
+    public synchronized void update(String url, String etag, String lastModified, FeedBuffer body,
+                                    StatusSnapshot result, long timestamp) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.bodyChecksum = body.getChecksum();
+        this.body = body.toByteArray();
+        this.result = result;
+        this.snapshotId = timestamp;
+        this.timestamp = timestamp;
+        this.data = null;
+        this.filteredResults = NO_RESULTS;
+        this.favourites = null;
+        populated = true;
+        stale = false;
+    }
+
+    /**
+     * Populate the cache from a snapshot. There's no response body or generated data; the
+     * data is generated on first use.
+     *
+     * @param url URL the snapshotted response was fetched from, or null
+     * @param etag ETag of the snapshotted response, or null
+     * @param lastModified Last-Modified of the snapshotted response, or null
+     * @param result the snapshotted result
+     * @param timestamp when the snapshotted response was fetched
+     */
+    public synchronized void restore(String url, String etag, String lastModified, StatusSnapshot result,
+                                     long timestamp) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.body = null;
+        this.result = result;
+        this.snapshotId = timestamp;
+        this.timestamp = timestamp;
+        this.data = null;
+        this.filteredResults = NO_RESULTS;
+        this.favourites = null;
+        populated = true;
+        stale = true;
+    }
+
+    /**
+     * Mark the cached contents as current as of the supplied time, e.g. when the server
+     * reports they're unchanged, recording any new validators sent with that response.
+     *
+     * @param etag ETag header of the response, or null
+     * @param lastModified Last-Modified header of the response, or null
+     * @param timestamp time of the response
+     */
+    public synchronized void confirm(String etag, String lastModified, long timestamp) {
+        if (etag != null) {
+            this.etag = etag;
+        }
+        if (lastModified != null) {
+            this.lastModified = lastModified;
+        }
+        this.timestamp = timestamp;
+        if (stale) {
+            // Data was generated with stale markers; regenerate on next use
+            stale = false;
+            favourites = null;
+        }
+    }
+
+    /**
+     * Mark the cached contents as current, as {@link #confirm(String, String, long)} does, for
+     * a response whose body differs from the cached one although no line's status does. The
+     * new body replaces the cached one, so later responses with the same body are matched
+     * without parsing; the result, and with it the snapshot ID and generated data, are kept.
+     *
+     * @param etag ETag header of the response, or null
+     * @param lastModified Last-Modified header of the response, or null
+     * @param body response body; copied, so the buffer can be reused
+     * @param timestamp time of the response
+     */
+    public synchronized void confirm(String etag, String lastModified, FeedBuffer body, long timestamp) {
+        confirm(etag, lastModified, timestamp);
+        this.bodyChecksum = body.getChecksum();
+        this.body = body.toByteArray();
+    }
+
+    /**
+     * Mark the cached contents as stale, e.g. when they can't currently be refreshed, so
+     * they're republished with the time they were last current.
+     */
+    public synchronized void markStale() {
+        if (!stale) {
+            stale = true;
+            favourites = null;
+        }
+    }
+
+    /**
+     * Replace the cached data and filtered results, e.g. once generated for a new response or
+     * after favourites have changed.
+     *
+     * @param data new data
+     * @param filteredResults slots of the results the data was generated from
+     * @param preferredLines favourites the data was filtered against
+     */
+    public synchronized void setData(ExtensionData data, int[] filteredResults, Favourites preferredLines) {
+        this.data = data;
+        this.filteredResults = filteredResults;
+        this.favourites = preferredLines;
+    }
+
+    /**
+     * Get the cached results filtered against the user's current favourites. If the
+     * favourites have changed since the extension last filtered them, they are filtered
+     * again here (without touching the published data).
+     *
+     * @param preferredLines the user's current favourites
+     * @return slots of the filtered results in {@link #getResult()}, in display order; empty
+     *         if the cache is empty
+     */
+    public synchronized int[] getFilteredResults(Favourites preferredLines) {
+        if (!populated) {
+            return NO_RESULTS;
+        }
+        if (isDataCurrent(preferredLines)) {
+            return filteredResults;
+        }
+        return LineStatusFilter.getFilteredResults(result, preferredLines);
+    }
+
+    /**
+     * @param url a feed URL
+     * @return true if the cached response was fetched from that URL, so its validators and
+     *         body apply to it
+     */
+    public synchronized boolean isFrom(String url) {
+        return url.equals(this.url);
+    }
+
+    public synchronized String getUrl() {
+        return url;
+    }
+
+    public synchronized String getEtag() {
+        return etag;
+    }
+
+    public synchronized String getLastModified() {
+        return lastModified;
+    }
+
+    public synchronized StatusSnapshot getResult() {
+        return result;
+    }
+
+    public synchronized long getSnapshotId() {
+        return snapshotId;
+    }
+
+    public synchronized long getTimestamp() {
+        return timestamp;
+    }
+
+    public synchronized ExtensionData getData() {
+        return data;
+    }
+}
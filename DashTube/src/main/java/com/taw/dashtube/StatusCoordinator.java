@@ -0,0 +1,671 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponse;
+import com.taw.dashtube.model.Favourites;
+import com.taw.dashtube.model.StatusSnapshot;
+import com.taw.dashtube.model.Tube;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide owner of status fetching and of the {@link StatusCache} it fills. Everything
+ * that shows statuses - the DashClock extension, the home screen widget and the detail
+ * activity - asks the coordinator for a refresh rather than fetching for itself, so they
+ * share one HTTP client, one set of validators and one circuit breaker, and a new surface
+ * doesn't add requests or parses of its own.
+ *
+ * Fetches are single-flight: while one is in progress, anyone else asking for a refresh
+ * waits for it and shares its outcome instead of starting another. Surfaces that want to
+ * know when the statuses change register a {@link Listener}, which is told after every
+ * fetch, whoever started it.
+ *
+ * Getting the coordinator is cheap, so surfaces can do it (and register listeners) on the
+ * main thread; the stores it uses, and the last known statuses, are loaded by
+ * {@link #initialise()} on whichever worker thread first needs them.
+ */
+public class StatusCoordinator {
+
+    /** Logging tag. */
+    private static final String TAG = "DashTubeCoordinator";
+
+    /** How many days ahead to fetch planned works for. */
+    private static final int PLANNED_WORKS_DAYS = 7;
+
+    /**
+     * Told when a fetch finishes, or a background refresh finds it needn't fetch. Called on
+     * the main thread.
+     */
+    public interface Listener {
+        /**
+         * @param failure why the fetch failed, e.g. an {@link OverBudgetException}, or null if
+         *                it succeeded; if it failed, the cache holds the last good statuses,
+         *                marked as stale, if there are any
+         * @param favourites the user's favourite lines, read on the worker so listeners
+         *                   needn't touch the preferences on the main thread
+         */
+        void onStatusRefreshed(IOException failure, Favourites favourites);
+    }
+
+    /** The single instance, created on first use. */
+    private static StatusCoordinator instance;
+
+    /** Application context, for resources. */
+    private final Context context;
+
+    /** HTTP client for the status feed; kept for the life of the process so connections are reused. */
+    private final StatusFeedClient client = new StatusFeedClient();
+    /** Result of the last successful fetch. */
+    private final StatusCache cache = StatusCache.getInstance();
+    /** On-disk snapshot of the cache, so there's something to show straight after a restart. */
+    private StatusSnapshotStore snapshotStore;
+    /** Log of status changes, for the detail activity to say how long they've stood. */
+    private StatusHistoryStore history;
+    /** Planned works, refreshed daily. */
+    private PlannedWorksStore plannedWorks;
+    /** Parses planned works responses. */
+    private final PlannedWorksParser plannedWorksParser = new PlannedWorksParser();
+    /** Formats dates for the planned works request. */
+    private final SimpleDateFormat requestDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+
+    /** The user's favourite lines, kept up to date as they're edited. */
+    private FavouritesStore favourites;
+    /** When each line runs. */
+    private ServiceHours serviceHours;
+    /** Keeps fetching within the user's data caps. */
+    private DataBudgetStore budget;
+
+    /** The network-wide feed; used when no favourites are set, and as the fallback. */
+    private FeedSource xmlSource;
+    /** Per-line endpoint format; empty if not configured. */
+    private String unifiedUrl;
+    /** Statuses of just the favourite lines; created for the current favourites when needed. */
+    private FeedSource unifiedSource;
+    /** Favourites the per-line source was created for. */
+    private Favourites unifiedSourceFavourites;
+
+    /** Whether the fields above have been set up; guarded by this. */
+    private boolean initialised = false;
+
+    /** Runs fetches with retries, and stops them while the feed looks to be down. */
+    private final FetchExecutor executor = new FetchExecutor();
+
+    /** Response body of the current fetch; reused across fetches. */
+    private final FeedBuffer body = new FeedBuffer();
+    /** Held while using the client and body, which planned works refreshes share with fetches. */
+    private final Object fetchLock = new Object();
+    /** Bytes received by the current fetch, for the data budget; guarded by fetchLock. */
+    private long responseBytes;
+
+    /** The fetch in progress, if any; guarded by this. */
+    private Flight inFlight;
+
+    /** Runs background refreshes. */
+    private final ExecutorService background = Executors.newSingleThreadExecutor();
+    /** Whether a background refresh is queued or running; guarded by this. */
+    private boolean backgroundPending = false;
+    /** Run on the main thread once the pending background refresh is done; guarded by this. */
+    private final List<Runnable> backgroundCallbacks = new ArrayList<Runnable>();
+    /** Timings for background refreshes; only used on the background thread. */
+    private final UpdateMetrics.Cycle backgroundCycle = new UpdateMetrics.Cycle();
+
+    /** Registered listeners. */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    /** For calling listeners on the main thread. */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private StatusCoordinator(Context context) {
+        this.context = context;
+
+        // Widgets are updated whichever surface the refresh was for
+        listeners.add(new StatusWidgetProvider.Updater(context));
+    }
+
+    /**
+     * @param context any context; the application context is held
+     * @return the process-wide coordinator
+     */
+    public static synchronized StatusCoordinator getInstance(Context context) {
+        if (instance == null) {
+            instance = new StatusCoordinator(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Set up the stores and sources, and restore the last known statuses into the cache, if
+     * that hasn't been done yet. This reads preferences and files, so shouldn't be called on
+     * the main thread; the other methods that need it call it themselves.
+     */
+    public synchronized void initialise() {
+        if (initialised) return;
+
+        xmlSource = new XmlFeedSource(context.getString(R.string.line_status_api_url));
+        unifiedUrl = context.getString(R.string.line_status_unified_api_url);
+        favourites = FavouritesStore.getInstance(context);
+        serviceHours = new ServiceHours(context.getResources().getStringArray(R.array.holiday_dates));
+        budget = DataBudgetStore.getInstance(context);
+
+        snapshotStore = new StatusSnapshotStore(context);
+        history = StatusHistoryStore.getInstance(context);
+        plannedWorks = PlannedWorksStore.getInstance(context);
+        requestDateFormat.setTimeZone(TimeZone.getTimeZone("Europe/London"));
+
+        // Restore the last known statuses, unless the detail activity already has; they stay
+        // marked as stale until the first fetch
+        if (!cache.isPopulated()) {
+            snapshotStore.load(cache);
+        }
+        initialised = true;
+    }
+
+    /**
+     * @param listener to be told after each fetch
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener no longer to be told
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param now current time
+     * @return true if any of the lines the user is interested in (or, if they have no
+     *         favourites, any line at all) are running, so statuses are worth fetching
+     */
+    public boolean isServiceRunning(long now) {
+        initialise();
+        return serviceHours.isAnyRunning(favourites.get(), now);
+    }
+
+    /**
+     * @param now current time
+     * @return how hard fetching is currently being cut back to stay within the user's data caps
+     */
+    public DataBudget.Level getBudgetLevel(long now) {
+        initialise();
+        return budget.getLevel(now);
+    }
+
+    /**
+     * @param preferredLines the user's favourite lines
+     * @return true if the cached response has the statuses a fetch now would give us, i.e.
+     *         it came from the source we'd fetch from or from the whole-network feed
+     */
+    public boolean covers(Favourites preferredLines) {
+        initialise();
+        return cache.isFrom(selectSource(preferredLines).getUrl().build())
+                || cache.isFrom(xmlSource.getUrl().build());
+    }
+
+    /**
+     * Fetch statuses into the cache, on the calling thread. If a fetch is already in
+     * progress this waits for it and shares its outcome rather than starting another; in
+     * that case the supplied cycle isn't timed, as the work was done (and recorded) by
+     * whoever started it.
+     *
+     * Transient failures are retried; if the fetch still fails, or the feed looks to be down,
+     * any cached statuses are marked as stale. Unexpected runtime failures are reported as
+     * IOExceptions, so waiters and listeners always hear the outcome. Near the user's data
+     * cap, a failed favourite lines' request doesn't fall back to the whole-network feed; at
+     * the cap, nothing is fetched.
+     *
+     * @param now time of the request
+     * @param cycle timings for the caller's update cycle
+     * @throws OverBudgetException if the data cap has been reached
+     * @throws IOException if the fetch failed
+     */
+    public void refresh(long now, UpdateMetrics.Cycle cycle) throws IOException {
+        initialise();
+        Flight flight;
+        boolean leader;
+        synchronized (this) {
+            leader = (inFlight == null);
+            if (leader) {
+                inFlight = new Flight();
+            }
+            flight = inFlight;
+        }
+
+        if (!leader) {
+            flight.await();
+            return;
+        }
+
+        boolean completed = false;
+        try {
+            synchronized (fetchLock) {
+                DataBudget.Level level = budget.getLevel(now);
+                if (!level.allowsFetch()) {
+                    throw new OverBudgetException();
+                }
+
+                boolean metered = budget.isMetered();
+                long traffic = budget.startMeasuring();
+                responseBytes = 0;
+                try {
+                    fetch(selectSource(favourites.get()), level.allowsFullFetch(), now, cycle);
+                } finally {
+                    budget.record(metered, traffic, responseBytes, now);
+                }
+            }
+            completed = true;
+        } catch (IOException ioe) {
+            flight.failure = ioe;
+        } catch (RuntimeException re) {
+            // A bug, or a library failing in a way it shouldn't; either way, the fetch failed
+            Log.e(TAG, "Unexpected failure fetching statuses", re);
+            flight.failure = new IOException("Unexpected failure fetching statuses", re);
+        } finally {
+            if (!completed && flight.failure == null) {
+                // Something worse is on its way up; still, don't let the waiters think it worked
+                flight.failure = new IOException("Fetch did not complete");
+            }
+            if (flight.failure != null) {
+                // Better to show the last statuses we had, clearly dated, than nothing
+                cache.markStale();
+            }
+            synchronized (this) {
+                inFlight = null;
+            }
+            flight.done.countDown();
+            notifyListeners(flight.failure);
+        }
+
+        if (flight.failure != null) {
+            throw flight.failure;
+        }
+    }
+
+    /**
+     * Refresh in the background. Unless the caller insists, the fetch is skipped if the
+     * cached statuses were fetched within the supplied age, which is stretched as the user's
+     * data cap nears, or none of the user's lines are running; listeners are told either
+     * way, so they can draw the statuses restored at start-up. Asking again while a
+     * background refresh is pending doesn't queue another.
+     *
+     * @param maxAgeMs how old the cached statuses may be and still be used; 0 to always fetch
+     */
+    public void requestRefresh(long maxAgeMs) {
+        requestRefresh(maxAgeMs, null);
+    }
+
+    /**
+     * Refresh in the background as {@link #requestRefresh(long)} does, then run the supplied
+     * callback on the main thread, after the listeners have been told. If a refresh is
+     * already pending, the callback is run when that one is done.
+     *
+     * @param maxAgeMs how old the cached statuses may be and still be used; 0 to always fetch
+     * @param whenDone run once the refresh is done, e.g. to finish an asynchronous broadcast;
+     *                 may be null
+     */
+    public void requestRefresh(final long maxAgeMs, Runnable whenDone) {
+        synchronized (this) {
+            if (whenDone != null) {
+                backgroundCallbacks.add(whenDone);
+            }
+            if (backgroundPending) return;
+            backgroundPending = true;
+        }
+
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    initialise();
+                    long now = System.currentTimeMillis();
+                    long maxAge = maxAgeMs * budget.getLevel(now).getIntervalFactor();
+                    if (maxAge > 0 && (!isServiceRunning(now) || (cache.isPopulated() && !cache.isStale()
+                            && covers(favourites.get()) && now - cache.getTimestamp() < maxAge))) {
+                        notifyListeners(null);
+                        return;
+                    }
+
+                    backgroundCycle.start(now);
+                    try {
+                        refresh(now, backgroundCycle);
+                    } catch (IOException ioe) {
+                        backgroundCycle.setOutcome(UpdateMetrics.Outcome.ERROR);
+                        Log.w(TAG, "Background refresh failed", ioe);
+                    }
+                    UpdateMetrics.getInstance().record(backgroundCycle);
+
+                    refreshPlannedWorks(now);
+                } finally {
+                    final Runnable[] callbacks;
+                    synchronized (StatusCoordinator.this) {
+                        backgroundPending = false;
+                        callbacks = backgroundCallbacks.toArray(new Runnable[backgroundCallbacks.size()]);
+                        backgroundCallbacks.clear();
+                    }
+                    if (callbacks.length > 0) {
+                        // Posted after any listener calls, so they've been made by the time these run
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                for (Runnable callback : callbacks) {
+                                    callback.run();
+                                }
+                            }
+                        });
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @param failure why a fetch failed
+     * @return string resource describing the failure to the user
+     */
+    public static int getErrorMessage(IOException failure) {
+        if (failure instanceof FeedParseException) {
+            return R.string.error_parsing_expanded_body;
+        }
+        if (failure instanceof OverBudgetException) {
+            return R.string.error_budget_expanded_body;
+        }
+        return R.string.error_request_expanded_body;
+    }
+
+    /**
+     * Call each listener on the main thread. Must be called after {@link #initialise()}.
+     *
+     * @param failure why the fetch failed, or null if it succeeded
+     */
+    private void notifyListeners(final IOException failure) {
+        final Favourites current = favourites.get();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onStatusRefreshed(failure, current);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetch the planned works for the coming week, for all lines, if they're due a refresh.
+     * A failure just leaves the works we have until the next attempt. Best called after a
+     * fetch, while the radio is awake anyway. Skipped while near the user's data cap.
+     *
+     * @param now current time
+     */
+    public void refreshPlannedWorks(long now) {
+        initialise();
+        String urlFormat = context.getString(R.string.planned_works_api_url);
+        if (urlFormat.length() == 0 || !plannedWorks.isDue(now) || !budget.getLevel(now).allowsFullFetch()) return;
+
+        synchronized (fetchLock) {
+            // Another thread may have just done it
+            if (!plannedWorks.isDue(now)) return;
+            plannedWorks.attempted(now);
+
+            StringBuilder ids = new StringBuilder();
+            for (int line = 0; line < Tube.COUNT; line++) {
+                Tube tube = Tube.forOrdinal(line);
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(tube.getUnifiedId());
+            }
+            GenericUrl url = new GenericUrl(String.format(urlFormat, ids,
+                    requestDateFormat.format(new Date(now)),
+                    requestDateFormat.format(new Date(now + PLANNED_WORKS_DAYS * 24 * 60 * 60 * 1000L))));
+
+            boolean metered = budget.isMetered();
+            long traffic = budget.startMeasuring();
+            long received = 0;
+            HttpResponse rsp = null;
+            try {
+                rsp = client.get(url, null, null);
+                InputStream in = StatusFeedClient.getContent(rsp);
+                if (in == null) {
+                    throw new IOException("Empty planned works response");
+                }
+                try {
+                    body.readFrom(in);
+                } finally {
+                    in.close();
+                }
+                Long contentLength = rsp.getHeaders().getContentLength();
+                received = (contentLength != null) ? contentLength : body.getLength();
+
+                if (plannedWorks.matches(body.getChecksum())) {
+                    plannedWorks.confirm(now);
+                } else {
+                    plannedWorks.update(plannedWorksParser.parse(body.newInputStream()), body.getChecksum(), now);
+                }
+            } catch (IOException ioe) {
+                Log.w(TAG, "Could not refresh planned works", ioe);
+            } catch (IllegalStateException ise) {
+                // JsonReader's response to unexpected structure
+                Log.w(TAG, "Could not parse planned works", ise);
+            } catch (NumberFormatException nfe) {
+                Log.w(TAG, "Could not parse planned works", nfe);
+            } finally {
+                client.release(rsp);
+                budget.record(metered, traffic, received, now);
+            }
+        }
+    }
+
+    /**
+     * Choose where to fetch statuses from. If the user has favourites, only their statuses are
+     * requested; otherwise, or if the per-line endpoint isn't configured, the whole network's.
+     *
+     * @param preferredLines the user's favourite lines
+     * @return source to fetch from
+     */
+    private synchronized FeedSource selectSource(Favourites preferredLines) {
+        if (preferredLines.isEmpty() || unifiedUrl.length() == 0) {
+            return xmlSource;
+        }
+        if (unifiedSource == null || !preferredLines.equals(unifiedSourceFavourites)) {
+            unifiedSource = new UnifiedFeedSource(unifiedUrl, preferredLines);
+            unifiedSourceFavourites = preferredLines;
+        }
+        return unifiedSource;
+    }
+
+    /**
+     * Fetch statuses from the supplied source into the cache, with retries.
+     *
+     * @param source where to fetch from
+     * @param fallback whether to fall back to the whole-network feed if a per-line source fails
+     * @param now time of the request
+     * @param cycle timings for the update cycle
+     */
+    private void fetch(final FeedSource source, final boolean fallback, final long now,
+                       final UpdateMetrics.Cycle cycle) throws IOException {
+        executor.execute(new FetchExecutor.Fetch<Void>() {
+            @Override
+            public Void run() throws IOException {
+                fetchWithFallback(source, fallback, now, cycle);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Fetch statuses from the supplied source; if it's a per-line source and fails, the
+     * whole-network feed is tried instead, if allowed.
+     *
+     * @param source where to fetch from
+     * @param fallback whether to fall back to the whole-network feed
+     * @param now time of the request
+     * @param cycle timings for the update cycle
+     */
+    private void fetchWithFallback(FeedSource source, boolean fallback, long now, UpdateMetrics.Cycle cycle)
+            throws IOException {
+        try {
+            fetchFrom(source, now, cycle);
+        } catch (IOException ioe) {
+            if (source == xmlSource || !fallback) {
+                throw ioe;
+            }
+            Log.w(TAG, "Per-line status request failed; falling back to the full feed", ioe);
+            fetchFrom(xmlSource, now, cycle);
+        }
+    }
+
+    /**
+     * Make a (conditional, where we have validators for the same URL) request to the
+     * supplied source and process the response.
+     *
+     * @param source where to fetch from
+     * @param now time of the request
+     * @param cycle timings for the update cycle
+     */
+    private void fetchFrom(FeedSource source, long now, UpdateMetrics.Cycle cycle) throws IOException {
+        GenericUrl url = source.getUrl();
+        boolean sameUrl = cache.isFrom(url.build());
+
+        HttpResponse rsp = null;
+        try {
+            long start = System.nanoTime();
+            rsp = client.get(url,
+                    sameUrl ? cache.getEtag() : null,
+                    sameUrl ? cache.getLastModified() : null);
+            cycle.end(UpdateMetrics.Stage.REQUEST, start);
+            if (StatusFeedClient.isNotModified(rsp)) {
+                // Nothing's changed since the last update; no body to download or parse
+                cycle.setOutcome(UpdateMetrics.Outcome.NOT_MODIFIED);
+                HttpHeaders headers = rsp.getHeaders();
+                cache.confirm(headers.getETag(), headers.getLastModified(), now);
+                return;
+            }
+            processResponse(source, rsp, sameUrl, now, cycle);
+        } finally {
+            // Hand the connection back for reuse by the next update
+            client.release(rsp);
+        }
+    }
+
+    /**
+     * Process the response into the cache, recording any status changes.
+     *
+     * @param source where the response came from
+     * @param rsp the response from the status request
+     * @param sameUrl whether the cached response came from the same URL
+     * @param now time of the request
+     * @param cycle timings for the update cycle
+     * @throws FeedParseException if the response couldn't be parsed
+     */
+    private void processResponse(FeedSource source, HttpResponse rsp, boolean sameUrl, long now,
+                                 UpdateMetrics.Cycle cycle) throws IOException {
+        // Read the (decompressed) body as bytes; the BOM TfL prefix it with is dropped on the way
+        long start = System.nanoTime();
+        InputStream in = StatusFeedClient.getContent(rsp);
+        if (in == null) {
+            // No body at all, which is no more use than one we can't parse
+            Log.w(TAG, "Empty status response");
+            throw new FeedParseException();
+        }
+        try {
+            body.readFrom(in);
+        } finally {
+            in.close();
+        }
+        start = cycle.end(UpdateMetrics.Stage.DOWNLOAD, start);
+
+        // Count what came over the wire, i.e. compressed, where the server says
+        HttpHeaders headers = rsp.getHeaders();
+        Long contentLength = headers.getContentLength();
+        long bytes = contentLength != null ? contentLength : body.getLength();
+        cycle.addBytes(bytes);
+        responseBytes += bytes;
+        cycle.setOutcome(UpdateMetrics.Outcome.FRESH);
+
+        if (sameUrl && cache.matches(body)) {
+            // Server didn't send (or honour) validators, but the body is the same as last time
+            cache.confirm(headers.getETag(), headers.getLastModified(), now);
+            return;
+        }
+
+        StatusSnapshot result = source.parse(body.newInputStream());
+        cycle.end(UpdateMetrics.Stage.PARSE, start);
+        if (result == null) {
+            // We had some kind of parsing issue; logged elsewhere
+            throw new FeedParseException();
+        }
+
+        StatusDiff.ChangeSet changes = StatusDiff.diff(cache.getResult(), result);
+        if (sameUrl && cache.isPopulated() && changes.isEmpty()) {
+            // Body has changed, but no line's status has; keep the new body for matching next time
+            cache.confirm(headers.getETag(), headers.getLastModified(), body, now);
+            return;
+        }
+
+        // Lines missing after a change of source just weren't asked for, so aren't recorded as gone
+        history.record(now, result, changes, sameUrl);
+        cache.update(source.getUrl().build(), headers.getETag(), headers.getLastModified(), body, result, now);
+        snapshotStore.save(cache);
+    }
+
+    /**
+     * A fetch in progress, for others asking for a refresh to wait on.
+     */
+    private static class Flight {
+        /** Released when the fetch has finished. */
+        final CountDownLatch done = new CountDownLatch(1);
+        /** Why the fetch failed; null if it succeeded. Written before {@code done} is released. */
+        IOException failure;
+
+        /**
+         * Wait for the fetch to finish.
+         *
+         * @throws IOException the fetch's failure, if it failed
+         */
+        void await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for fetch");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
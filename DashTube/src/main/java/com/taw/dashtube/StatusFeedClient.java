@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Long-lived HTTP client for the line status feed, owned by the process-wide
+ * {@link StatusCoordinator} for the life of the process. A single transport and request
+ * factory are shared by every update, whichever surface it's for, so the platform's
+ * keep-alive pool can hand the previous connection (and its TLS session) straight back to
+ * the next poll rather than connecting from scratch. There's nothing to shut down: the
+ * pooled connections go with the process.
+ *
+ * Connections only go back into the pool once the response body has been fully read
+ * and closed; callers must therefore finish with responses via {@link #release(HttpResponse)}
+ * rather than disconnecting them.
+ */
+public class StatusFeedClient {
+
+    /** Connect timeout, in ms. */
+    private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    /** Read timeout, in ms. */
+    private static final int READ_TIMEOUT_MS = 20 * 1000;
+    /**
+     * Compressed encodings we accept. Setting this ourselves stops the platform's
+     * {@code HttpURLConnection} decompressing gzip transparently, so the response's
+     * Content-Encoding reaches {@link #getContent(HttpResponse)} intact.
+     */
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    /** Content-Encoding of a deflate response. */
+    private static final String DEFLATE = "deflate";
+
+    /** Request factory on a shared transport, applying our timeouts to every request. */
+    private final HttpRequestFactory requestFactory;
+
+    public StatusFeedClient() {
+        HttpTransport transport = new NetHttpTransport();
+        requestFactory = transport.createRequestFactory(new HttpRequestInitializer() {
+            @Override
+            public void initialize(HttpRequest request) {
+                request.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                request.setReadTimeout(READ_TIMEOUT_MS);
+                request.getHeaders().setAcceptEncoding(ACCEPT_ENCODING);
+            }
+        });
+    }
+
+    /**
+     * Issue a conditional GET request for the supplied URL. Any validators supplied are sent
+     * as {@code If-None-Match}/{@code If-Modified-Since} headers, in which case the response
+     * may be a 304 with no body; check with {@link #isNotModified(HttpResponse)}. Any other
+     * non-success response is thrown as an {@code HttpResponseException}.
+     *
+     * @param url URL to request
+     * @param etag ETag from the previous response, or null
+     * @param lastModified Last-Modified from the previous response, or null
+     * @return the response; pass it to {@link #release(HttpResponse)} when done
+     */
+    public HttpResponse get(GenericUrl url, String etag, String lastModified) throws IOException {
+        HttpRequest req = requestFactory.buildGetRequest(url);
+        if (etag != null) {
+            req.getHeaders().setIfNoneMatch(etag);
+        }
+        if (lastModified != null) {
+            req.getHeaders().setIfModifiedSince(lastModified);
+        }
+        // We want 304s back as responses rather than exceptions
+        req.setThrowExceptionOnExecuteError(false);
+
+        HttpResponse rsp = req.execute();
+        if (!rsp.isSuccessStatusCode() && !isNotModified(rsp)) {
+            HttpResponseException e = new HttpResponseException(rsp);
+            release(rsp);
+            throw e;
+        }
+
+        return rsp;
+    }
+
+    /**
+     * @param rsp response to check
+     * @return true if the response is a 304, i.e. the content we already have is current
+     */
+    public static boolean isNotModified(HttpResponse rsp) {
+        return rsp.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED;
+    }
+
+    /**
+     * Get the decompressed content of a response as a stream. gzip is decoded by the
+     * response itself; deflate we decode here.
+     *
+     * @param rsp response to read
+     * @return stream of the response body; close it once read, then release the response
+     */
+    public static InputStream getContent(HttpResponse rsp) throws IOException {
+        InputStream in = rsp.getContent();
+        String encoding = rsp.getContentEncoding();
+        if (in != null && encoding != null && encoding.trim().equalsIgnoreCase(DEFLATE)) {
+            in = new InflaterInputStream(in);
+        }
+        return in;
+    }
+
+    /**
+     * Finish with a response, closing its content so the underlying connection can be
+     * reused for the next request.
+     *
+     * @param rsp response to release; may be null
+     */
+    public void release(HttpResponse rsp) {
+        if (rsp == null) return;
+
+        try {
+            rsp.ignore();
+        } catch (IOException ioe) {
+            // Connection simply won't be reused
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+import android.content.Context;
+import android.util.Log;
+import com.taw.dashtube.model.StatusSnapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Process-wide holder for the {@link StatusHistory} log in app storage. The extension
+ * records each new set of statuses into it; the detail activity asks it when each line's
+ * status began. History is a nicety, so should the log be unusable it's logged and the
+ * store carries on without it.
+ */
+public class StatusHistoryStore {
+
+    /** Logging tag. */
+    private static final String TAG = "DashTubeHistoryStore";
+
+    /** History file name, in the app's files directory. */
+    private static final String FILENAME = "status.history";
+    /** Transitions kept; 32KB of records, far more than a month's worth. */
+    private static final int CAPACITY = 4096;
+    /** How long transitions are kept. */
+    private static final long RETENTION_MS = 28L * 24 * 60 * 60 * 1000;
+
+    /** The single instance, created on first use. */
+    private static StatusHistoryStore instance;
+
+    /** The log; null if it couldn't be opened. */
+    private StatusHistory history;
+
+    private StatusHistoryStore(Context context) {
+        try {
+            history = new StatusHistory(new File(context.getFilesDir(), FILENAME), CAPACITY, RETENTION_MS);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Could not open status history", ioe);
+        }
+    }
+
+    /**
+     * @param context any context; only used to find app storage
+     * @return the process-wide store
+     */
+    public static synchronized StatusHistoryStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new StatusHistoryStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Record the status changes in a new set of statuses.
+     *
+     * @param now time of the statuses
+     * @param snapshot the new statuses
+     * @param changes differences from the previous statuses
+     * @param includeCleared whether lines missing from the new statuses have gone from the
+     *                       feed, rather than just not been asked for
+     */
+    public void record(long now, StatusSnapshot snapshot, StatusDiff.ChangeSet changes, boolean includeCleared) {
+        if (history == null) return;
+
+        try {
+            history.record(now, snapshot, changes, includeCleared);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Could not record status history", ioe);
+        }
+    }
+
+    /**
+     * @param since filled in by {@code Tube} ordinal with when each line's current status
+     *              began, in ms, or 0 if that isn't known
+     */
+    public void getSince(long[] since) {
+        if (history == null) {
+            Arrays.fill(since, 0);
+            return;
+        }
+        history.getSince(since);
+    }
+}
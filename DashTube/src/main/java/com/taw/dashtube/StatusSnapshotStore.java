@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import android.content.Context;
+import android.util.Log;
+import com.taw.dashtube.model.StatusSnapshot;
+
+import java.io.*;
+
+/**
+ * Persists the contents of a {@link StatusCache} - the parsed line statuses, when they were
+ * fetched and the response validators - as a compact binary snapshot in app storage, so the
+ * extension has something to show straight after a restart.
+ *
+ * Snapshots are written to a temporary file which is synced and then renamed over the
+ * previous snapshot, so a process kill part way through never leaves a truncated file behind.
+ */
+public class StatusSnapshotStore {
+
+    /** Logging tag. */
+    private static final String TAG = "DashTubeSnapshotStore";
+
+    /** Snapshot file name, in the app's files directory. */
+    private static final String FILENAME = "status.snapshot";
+    /** Identifies a snapshot file ("DTSS"). */
+    private static final int MAGIC = 0x44545353;
+    /**
+     * Format version; bump when the layout below changes, and old snapshots will be ignored
+     * unless read specially. Version 2 added the feed URL.
+     */
+    private static final int VERSION = 2;
+    /** Version without the feed URL, still readable. */
+    private static final int VERSION_NO_URL = 1;
+
+    /** Snapshot file. */
+    private final File file;
+
+    public StatusSnapshotStore(Context context) {
+        file = new File(context.getFilesDir(), FILENAME);
+    }
+
+    /**
+     * Populate the supplied cache from the snapshot, if there is a readable one.
+     *
+     * @param cache cache to restore into
+     * @return true if the cache was restored
+     */
+    public boolean load(StatusCache cache) {
+        if (!file.exists()) return false;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                return false;
+            }
+            int version = in.readInt();
+            if (version != VERSION && version != VERSION_NO_URL) {
+                return false;
+            }
+
+            long timestamp = in.readLong();
+            String url = (version == VERSION) ? readNullableString(in) : null;
+            String etag = readNullableString(in);
+            String lastModified = readNullableString(in);
+
+            // Older snapshots write a count of -1 for a feed with no lines
+            StatusSnapshot.Builder builder = new StatusSnapshot.Builder();
+            int count = in.readShort();
+            for (int i = 0; i < count; i++) {
+                String id = readNullableString(in);
+                String name = readNullableString(in);
+                String description = readNullableString(in);
+                boolean isActive = in.readBoolean();
+                builder.add(id, name, description, isActive, readNullableString(in));
+            }
+
+            cache.restore(url, etag, lastModified, builder.build(), timestamp);
+            return true;
+        } catch (IOException ioe) {
+            Log.w(TAG, "Could not read status snapshot", ioe);
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write the supplied cache's contents out as the current snapshot.
+     *
+     * @param cache populated cache to snapshot
+     */
+    public void save(StatusCache cache) {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            // Hold the cache's lock so the ID, validators and result are all from the same fetch
+            synchronized (cache) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(cache.getSnapshotId());
+                writeNullableString(out, cache.getUrl());
+                writeNullableString(out, cache.getEtag());
+                writeNullableString(out, cache.getLastModified());
+
+                StatusSnapshot result = cache.getResult();
+                out.writeShort(result.size());
+                for (int i = 0; i < result.size(); i++) {
+                    int slot = result.getSlot(i);
+                    writeNullableString(out, result.getId(slot));
+                    writeNullableString(out, result.getName(slot));
+                    writeNullableString(out, result.getDescription(slot));
+                    out.writeBoolean(result.isActive(slot));
+                    writeNullableString(out, result.getDetails(slot));
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            fos = null;
+
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Could not replace status snapshot");
+                tmp.delete();
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "Could not write status snapshot", ioe);
+            closeQuietly(fos);
+            tmp.delete();
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String str) throws IOException {
+        out.writeBoolean(str != null);
+        if (str != null) {
+            out.writeUTF(str);
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null) return;
+
+        try {
+            c.close();
+        } catch (IOException ioe) {
+            // Nothing to be done
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.text.format.DateFormat;
+import android.widget.RemoteViews;
+import com.taw.dashtube.model.Favourites;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Home screen widget listing the lines with problems, as the extension does. The widget
+ * doesn't fetch for itself: it shows what's in the {@link StatusCache} and asks the
+ * {@link StatusCoordinator} for refreshes, which skips them if the statuses are recent and
+ * joins any fetch already in progress. The coordinator's {@link Updater} draws the widgets
+ * after every fetch, whichever surface it was for, and after refreshes it skipped, with
+ * the favourites the coordinator read on its worker; nothing here touches the stores on
+ * the main thread.
+ */
+public class StatusWidgetProvider extends AppWidgetProvider {
+
+    /** Broadcast by the widget's refresh button. */
+    public static final String ACTION_REFRESH = "com.taw.dashtube.action.REFRESH_WIDGET";
+
+    /** How old statuses can be before a periodic widget update fetches new ones. */
+    private static final long MAX_AGE_MS = 10 * 60 * 1000;
+
+    /** How many lines to output before we truncate output and display the more info msg. */
+    private static final int LINES_LIMIT = 4;
+
+    /** Generates the widget body text; only used on the main thread. */
+    private static StatusFormatter formatter;
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager manager, int[] appWidgetIds) {
+        // Restoring the last known statuses and checking the service hours read files, so are
+        // left to the coordinator's worker; the Updater draws the widgets once it's done
+        StatusCoordinator.getInstance(context).requestRefresh(MAX_AGE_MS, finishWhenDone(goAsync()));
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (ACTION_REFRESH.equals(intent.getAction())) {
+            // The user asked, so fetch whatever the time or the age of the statuses
+            StatusCoordinator.getInstance(context).requestRefresh(0, finishWhenDone(goAsync()));
+        } else {
+            super.onReceive(context, intent);
+        }
+    }
+
+    /**
+     * The refresh outlives onReceive, so the broadcast is kept going until it's done;
+     * otherwise, with nothing else of ours running, the process could be killed part way
+     * through the fetch.
+     *
+     * @param result the broadcast, from {@code goAsync()}
+     * @return a callback finishing the broadcast
+     */
+    private static Runnable finishWhenDone(final PendingResult result) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                result.finish();
+            }
+        };
+    }
+
+    /**
+     * Draw the cached statuses into the supplied widgets.
+     *
+     * @param context context for resources
+     * @param manager widget manager
+     * @param appWidgetIds widgets to draw
+     * @param failure why the last fetch failed, or null if it succeeded
+     * @param preferredLines the user's favourite lines
+     */
+    private static void render(Context context, AppWidgetManager manager, int[] appWidgetIds, IOException failure,
+                               Favourites preferredLines) {
+        if (formatter == null) {
+            formatter = new StatusFormatter(context.getString(R.string.line_status),
+                    context.getString(R.string.more_lines), LINES_LIMIT);
+        }
+
+        StatusCache cache = StatusCache.getInstance();
+        String text;
+        String updated = "";
+        long snapshotId = 0;
+        synchronized (cache) {
+            if (!cache.isPopulated()) {
+                text = context.getString(failure == null
+                        ? R.string.widget_loading
+                        : StatusCoordinator.getErrorMessage(failure));
+            } else {
+                int[] slots = cache.getFilteredResults(preferredLines);
+                if (slots.length > 0) {
+                    text = formatter.format(cache.getResult(), slots, !preferredLines.isEmpty());
+                } else {
+                    text = context.getString(!preferredLines.isEmpty()
+                            ? R.string.widget_good_service_filtered
+                            : R.string.widget_good_service);
+                }
+                updated = context.getString(R.string.updated_at,
+                        DateFormat.getTimeFormat(context).format(new Date(cache.getTimestamp())));
+                snapshotId = cache.getSnapshotId();
+            }
+        }
+
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.status_widget);
+        views.setTextViewText(R.id.widget_body, text);
+        views.setTextViewText(R.id.widget_updated, updated);
+
+        // Tapping the statuses opens the detail activity, as tapping the extension does
+        Intent detail = new Intent(context, DetailActivity.class);
+        detail.putExtra(DashTubeExtension.TUBE_STATUS_SNAPSHOT_ID, snapshotId);
+        detail.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        views.setOnClickPendingIntent(R.id.widget_body,
+                PendingIntent.getActivity(context, 0, detail, PendingIntent.FLAG_UPDATE_CURRENT));
+
+        Intent refresh = new Intent(context, StatusWidgetProvider.class);
+        refresh.setAction(ACTION_REFRESH);
+        views.setOnClickPendingIntent(R.id.widget_refresh, PendingIntent.getBroadcast(context, 0, refresh, 0));
+
+        manager.updateAppWidget(appWidgetIds, views);
+    }
+
+    /**
+     * Redraws any widgets after each fetch. Registered by the coordinator itself, so widgets
+     * are kept current even when nothing of the widget's is running.
+     */
+    static class Updater implements StatusCoordinator.Listener {
+
+        /** Application context. */
+        private final Context context;
+
+        Updater(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public void onStatusRefreshed(IOException failure, Favourites favourites) {
+            AppWidgetManager manager = AppWidgetManager.getInstance(context);
+            int[] appWidgetIds = manager.getAppWidgetIds(new ComponentName(context, StatusWidgetProvider.class));
+            if (appWidgetIds.length > 0) {
+                render(context, manager, appWidgetIds, failure, favourites);
+            }
+        }
+    }
+}
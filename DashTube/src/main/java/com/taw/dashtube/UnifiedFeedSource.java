@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import android.util.Log;
+import com.google.api.client.http.GenericUrl;
+import com.taw.dashtube.model.Favourites;
+import com.taw.dashtube.model.StatusSnapshot;
+import com.taw.dashtube.model.Tube;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Statuses for just the user's favourite lines, from TfL's Unified API
+ * {@code /Line/{ids}/Status} endpoint. With a handful of favourites the response is a
+ * fraction of the size of the network-wide XML feed.
+ */
+public class UnifiedFeedSource implements FeedSource {
+
+    /** Logging tag. */
+    private static final String TAG = "DashTubeUnifiedFeed";
+
+    /** URL of the statuses of the favourite lines. */
+    private final GenericUrl url;
+
+    /** Parses responses. */
+    private final UnifiedStatusParser parser = new UnifiedStatusParser();
+
+    /**
+     * @param urlFormat endpoint URL, with a {@code %1$s} placeholder for the comma-separated line IDs
+     * @param favourites lines to request; must not be empty
+     */
+    public UnifiedFeedSource(String urlFormat, Favourites favourites) {
+        StringBuilder ids = new StringBuilder();
+        for (int line = 0; line < Tube.COUNT; line++) {
+            if (favourites.contains(line)) {
+                Tube tube = Tube.forOrdinal(line);
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(tube.getUnifiedId());
+            }
+        }
+        url = new GenericUrl(String.format(urlFormat, ids));
+    }
+
+    @Override
+    public GenericUrl getUrl() {
+        return url;
+    }
+
+    @Override
+    public StatusSnapshot parse(InputStream in) {
+        try {
+            return parser.parse(in);
+        } catch (IOException ioe) {
+            Log.e(TAG, "Problem parsing status response", ioe);
+            return null;
+        } catch (IllegalStateException ise) {
+            // JsonReader's response to unexpected structure
+            Log.e(TAG, "Problem parsing status response", ise);
+            return null;
+        } catch (NumberFormatException nfe) {
+            Log.e(TAG, "Problem parsing status response", nfe);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import com.taw.dashtube.model.StatusSnapshot;
+import com.taw.dashtube.model.Tube;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Streaming decoder for the Unified API's {@code /Line/{ids}/Status} response - an array of
+ * lines, each with a list of current statuses. Reads the few fields we use with a
+ * {@code JsonReader} and skips the rest (validity periods, disruption details and so on)
+ * without building them.
+ *
+ * Where a line has several statuses, the most severe disruption is reported, as the XML
+ * feed does. Lines are identified by the XML feed's IDs where the {@link Tube} enum knows
+ * them, so snapshots from either source are comparable.
+ */
+public class UnifiedStatusParser {
+
+    /** Field names of interest. */
+    private static final String ID = "id";
+    private static final String NAME = "name";
+    private static final String LINE_STATUSES = "lineStatuses";
+    private static final String STATUS_SEVERITY = "statusSeverity";
+    private static final String STATUS_SEVERITY_DESCRIPTION = "statusSeverityDescription";
+    private static final String REASON = "reason";
+
+    /** Severities that aren't disruptions: Good Service, No Issues and Information. */
+    private static final int GOOD_SERVICE = 10;
+    private static final int NO_ISSUES = 18;
+    private static final int INFORMATION = 19;
+
+    /**
+     * Parse the response from the supplied stream, which is UTF-8 as the API always is. The
+     * stream is not closed.
+     *
+     * @param in stream containing the response
+     * @return snapshot of the lines' statuses
+     */
+    public StatusSnapshot parse(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        StatusSnapshot.Builder builder = new StatusSnapshot.Builder();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            parseLine(reader, builder);
+        }
+        reader.endArray();
+
+        return builder.build();
+    }
+
+    /**
+     * Parse a line object into the builder.
+     */
+    private void parseLine(JsonReader reader, StatusSnapshot.Builder builder) throws IOException {
+        String id = null;
+        String name = null;
+        LineState state = new LineState();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (ID.equals(field)) {
+                id = nextString(reader);
+            } else if (NAME.equals(field)) {
+                name = nextString(reader);
+            } else if (LINE_STATUSES.equals(field) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    parseLineStatus(reader, state);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        Tube tube = Tube.forUnifiedId(id);
+        builder.add(tube != null ? tube.getId() : id, name, state.description, state.active, state.reason);
+    }
+
+    /**
+     * Parse one of a line's statuses, keeping it if it's the most severe disruption so far.
+     */
+    private void parseLineStatus(JsonReader reader, LineState state) throws IOException {
+        int severity = GOOD_SERVICE;
+        String description = null;
+        String reason = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (STATUS_SEVERITY.equals(field) && reader.peek() == JsonToken.NUMBER) {
+                severity = reader.nextInt();
+            } else if (STATUS_SEVERITY_DESCRIPTION.equals(field)) {
+                description = nextString(reader);
+            } else if (REASON.equals(field)) {
+                reason = nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        boolean active = severity != GOOD_SERVICE && severity != NO_ISSUES && severity != INFORMATION;
+        // Lower severities are worse
+        if (!state.seen || (active && (!state.active || severity < state.severity))) {
+            state.seen = true;
+            state.severity = severity;
+            state.active = active;
+            state.description = description;
+            state.reason = reason;
+        }
+    }
+
+    /**
+     * @return the next value as a string, or null if it's null
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * The status being reported for a line.
+     */
+    private static class LineState {
+        boolean seen = false;
+        int severity;
+        boolean active;
+        String description;
+        String reason;
+    }
+}
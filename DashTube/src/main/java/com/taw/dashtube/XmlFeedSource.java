@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.google.api.client.http.GenericUrl;
+import com.taw.dashtube.model.StatusSnapshot;
+
+import java.io.InputStream;
+
+/**
+ * The network-wide line status XML feed; every line, whatever the user's favourites.
+ */
+public class XmlFeedSource implements FeedSource {
+
+    /** Feed URL. */
+    private final GenericUrl url;
+
+    /**
+     * @param url feed URL, including any key
+     */
+    public XmlFeedSource(String url) {
+        this.url = new GenericUrl(url);
+    }
+
+    @Override
+    public GenericUrl getUrl() {
+        return url;
+    }
+
+    @Override
+    public StatusSnapshot parse(InputStream in) {
+        // The encoding is taken from the XML declaration
+        return DashTubeUtils.parseTubeLineStatusResponse(in, null);
+    }
+}
@@ -1,29 +0,0 @@
-/*
- * Copyright 2013-2014 That Amazing Web Ltd.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.taw.dashtube.model;
-
-import com.google.api.client.util.Key;
-
-/**
- * Simple class encapsulating the {@code Status} element.
- */
-public class Status {
-    @Key("@Description")
-    public String description;
-    @Key("@IsActive")
-    public boolean isActive;
-}
@@ -0,0 +1,456 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube.build;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates the line registry - the {@code Tube} enum for dashtube-core, and the
+ * {@code line_names} and {@code line_codes} resource arrays for the app - from the single
+ * line definition file, {@code dashtube-core/src/main/lines/lines.txt}. See that file for
+ * the format.
+ *
+ * Besides the per-line constants, the enum gets its display (name) order worked out here
+ * rather than sorted at class initialisation, and a lookup table for each kind of line ID.
+ * The tables are indexed by a hash of the ID's length and first and last characters, with
+ * factors and table sizes searched for here so that no two IDs share a slot; a lookup is
+ * then a couple of multiplies, an array read and one {@code equals}, with no {@code HashMap},
+ * boxing or scan.
+ */
+public class LineRegistryGenerator {
+
+    /** Package and name of the generated enum. */
+    private static final String PACKAGE = "com.taw.dashtube.model";
+    private static final String CLASS_NAME = "Tube";
+
+    /** Fields per definition. */
+    private static final int FIELD_COUNT = 7;
+
+    /** Largest hash factor tried. */
+    private static final int MAX_FACTOR = 64;
+    /** Largest lookup table tried, as a multiple of the number of lines. */
+    private static final int MAX_TABLE_MULTIPLE = 8;
+
+    /** Written at the top of generated files. */
+    private static final String GENERATED_NOTE = "Generated from lines.txt by LineRegistryGenerator; do not edit.";
+
+    private LineRegistryGenerator() {
+    }
+
+    /**
+     * Generate {@code Tube.java} under the supplied source directory.
+     *
+     * @param definitions the line definition file
+     * @param sourceDir root of the generated sources
+     */
+    public static void generateJava(File definitions, File sourceDir) throws IOException {
+        List<Line> lines = read(definitions);
+        Lookup byId = findLookup(lines, false);
+        Lookup byUnifiedId = findLookup(lines, true);
+
+        StringBuilder out = new StringBuilder();
+        out.append("/*\n * ").append(GENERATED_NOTE).append("\n */\n\n");
+        out.append("package ").append(PACKAGE).append(";\n\n");
+        out.append("/**\n");
+        out.append(" * Represents a tube line, with various details. Generated at build time from the line\n");
+        out.append(" * definitions in {@code dashtube-core/src/main/lines/lines.txt}, along with the app's\n");
+        out.append(" * line resource arrays; add or change lines there.\n");
+        out.append(" */\n");
+        out.append("public enum ").append(CLASS_NAME).append(" {\n");
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            out.append("    ").append(line.constant).append('(')
+                    .append(quote(line.id)).append(", ")
+                    .append(quote(line.unifiedId)).append(", ")
+                    .append(quote(line.name)).append(", ")
+                    .append(hex(line.foregroundColour)).append(", ")
+                    .append(hex(line.backgroundColour)).append(')')
+                    .append(i < lines.size() - 1 ? ",\n" : ";\n");
+        }
+        out.append('\n');
+
+        out.append("    /** Number of lines; their ordinals run from 0 to one less than this. */\n");
+        out.append("    public static final int COUNT = ").append(lines.size()).append(";\n\n");
+
+        out.append("    /** Lines by ordinal, shared so callers needn't copy values(). */\n");
+        out.append("    private static final ").append(CLASS_NAME).append("[] BY_ORDINAL = values();\n\n");
+
+        out.append("    /** Ordinals of the lines in display order, i.e. by name. */\n");
+        out.append("    static final int[] DISPLAY_ORDER = ").append(displayOrder(lines)).append(";\n\n");
+
+        appendLookup(out, "feed ID", "ID", byId, lines);
+        appendLookup(out, "Unified API ID", "UNIFIED_ID", byUnifiedId, lines);
+
+        out.append("    /** Line ID, as used by the line status XML feed. */\n");
+        out.append("    private final String id;\n");
+        out.append("    /** Line ID, as used by TfL's Unified API. */\n");
+        out.append("    private final String unifiedId;\n");
+        out.append("    /** Line Name. */\n");
+        out.append("    private final String name;\n");
+        out.append("    /** Foreground colour of line text. */\n");
+        out.append("    private final int foregroundColour;\n");
+        out.append("    /** Background colour of line text. */\n");
+        out.append("    private final int backgroundColour;\n\n");
+
+        out.append("    ").append(CLASS_NAME).append("(String id, String unifiedId, String name, int foregroundColour, int backgroundColour) {\n");
+        out.append("        this.id = id;\n");
+        out.append("        this.unifiedId = unifiedId;\n");
+        out.append("        this.name = name;\n");
+        out.append("        this.foregroundColour = foregroundColour;\n");
+        out.append("        this.backgroundColour = backgroundColour;\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * Look up a line by the ID the feed uses for it.\n");
+        out.append("     *\n");
+        out.append("     * @param id line ID\n");
+        out.append("     * @return the line, or null if the ID isn't one we know\n");
+        out.append("     */\n");
+        out.append("    public static ").append(CLASS_NAME).append(" forId(String id) {\n");
+        out.append("        if (id == null || id.length() == 0) return null;\n");
+        out.append("        ").append(CLASS_NAME).append(" t = BY_ID[slot(id, ID_LENGTH_FACTOR, ID_FIRST_FACTOR, BY_ID.length)];\n");
+        out.append("        return (t != null && t.id.equals(id)) ? t : null;\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * Look up a line by its Unified API ID.\n");
+        out.append("     *\n");
+        out.append("     * @param unifiedId line ID\n");
+        out.append("     * @return the line, or null if the ID isn't one we know\n");
+        out.append("     */\n");
+        out.append("    public static ").append(CLASS_NAME).append(" forUnifiedId(String unifiedId) {\n");
+        out.append("        if (unifiedId == null || unifiedId.length() == 0) return null;\n");
+        out.append("        ").append(CLASS_NAME).append(" t = BY_UNIFIED_ID[slot(unifiedId, UNIFIED_ID_LENGTH_FACTOR, UNIFIED_ID_FIRST_FACTOR,\n");
+        out.append("                BY_UNIFIED_ID.length)];\n");
+        out.append("        return (t != null && t.unifiedId.equals(unifiedId)) ? t : null;\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * Look up a line by its ordinal, without copying {@code values()}.\n");
+        out.append("     *\n");
+        out.append("     * @param ordinal the line's ordinal, less than {@link #COUNT}\n");
+        out.append("     * @return the line\n");
+        out.append("     */\n");
+        out.append("    public static ").append(CLASS_NAME).append(" forOrdinal(int ordinal) {\n");
+        out.append("        return BY_ORDINAL[ordinal];\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * @return slot of a non-empty ID in a lookup table\n");
+        out.append("     */\n");
+        out.append("    private static int slot(String key, int lengthFactor, int firstFactor, int tableLength) {\n");
+        out.append("        int length = key.length();\n");
+        out.append("        return (length * lengthFactor + key.charAt(0) * firstFactor + key.charAt(length - 1)) % tableLength;\n");
+        out.append("    }\n\n");
+
+        out.append("    public String getId() {\n        return id;\n    }\n\n");
+        out.append("    public String getUnifiedId() {\n        return unifiedId;\n    }\n\n");
+        out.append("    public String getName() {\n        return name;\n    }\n\n");
+        out.append("    public int getForegroundColour() {\n        return foregroundColour;\n    }\n\n");
+        out.append("    public int getBackgroundColour() {\n        return backgroundColour;\n    }\n");
+        out.append("}\n");
+
+        File dir = new File(sourceDir, PACKAGE.replace('.', File.separatorChar));
+        write(new File(dir, CLASS_NAME + ".java"), out);
+    }
+
+    /**
+     * Generate the {@code line_names} and {@code line_codes} arrays, in display order, as
+     * {@code values/lines.xml} under the supplied resource directory.
+     *
+     * @param definitions the line definition file
+     * @param resDir root of the generated resources
+     */
+    public static void generateResources(File definitions, File resDir) throws IOException {
+        List<Line> lines = read(definitions);
+        List<Line> sorted = sortByName(lines);
+
+        StringBuilder out = new StringBuilder();
+        out.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        out.append("<!-- ").append(GENERATED_NOTE).append(" -->\n");
+        out.append("<resources>\n\n");
+        out.append("    <!-- Display names and feed IDs of the lines, in display order, for the favourites dialog -->\n");
+        out.append("    <string-array name=\"line_names\">\n");
+        for (Line line : sorted) {
+            out.append("        <item>@string/").append(line.nameResource).append("</item>\n");
+        }
+        out.append("    </string-array>\n");
+        out.append("    <string-array name=\"line_codes\">\n");
+        for (Line line : sorted) {
+            out.append("        <item>").append(escapeXml(line.id)).append("</item>\n");
+        }
+        out.append("    </string-array>\n");
+        out.append("</resources>\n");
+
+        write(new File(new File(resDir, "values"), "lines.xml"), out);
+    }
+
+    /**
+     * Append a lookup table and its hash factors.
+     */
+    private static void appendLookup(StringBuilder out, String description, String prefix, Lookup lookup,
+                                     List<Line> lines) {
+        out.append("    /** Lines by slot of their ").append(description).append("; see {@link #slot}. */\n");
+        out.append("    private static final ").append(CLASS_NAME).append("[] BY_").append(prefix).append(" = {");
+        for (int i = 0; i < lookup.table.length; i++) {
+            out.append(i % 4 == 0 ? "\n            " : " ");
+            out.append(lookup.table[i] >= 0 ? lines.get(lookup.table[i]).constant : "null");
+            if (i < lookup.table.length - 1) {
+                out.append(',');
+            }
+        }
+        out.append("\n    };\n");
+        out.append("    private static final int ").append(prefix).append("_LENGTH_FACTOR = ")
+                .append(lookup.lengthFactor).append(";\n");
+        out.append("    private static final int ").append(prefix).append("_FIRST_FACTOR = ")
+                .append(lookup.firstFactor).append(";\n\n");
+    }
+
+    /**
+     * Find the smallest collision-free lookup table for one kind of line ID.
+     *
+     * @param lines the lines
+     * @param unified whether to use the Unified API IDs rather than the feed IDs
+     * @return the table and its factors
+     */
+    private static Lookup findLookup(List<Line> lines, boolean unified) {
+        int count = lines.size();
+        for (int tableLength = Math.max(count, 1); tableLength <= count * MAX_TABLE_MULTIPLE; tableLength++) {
+            for (int lengthFactor = 1; lengthFactor <= MAX_FACTOR; lengthFactor++) {
+                for (int firstFactor = 1; firstFactor <= MAX_FACTOR; firstFactor++) {
+                    int[] table = new int[tableLength];
+                    Arrays.fill(table, -1);
+                    boolean collision = false;
+                    for (int i = 0; i < count && !collision; i++) {
+                        Line line = lines.get(i);
+                        int slot = slot(unified ? line.unifiedId : line.id, lengthFactor, firstFactor, tableLength);
+                        collision = table[slot] >= 0;
+                        table[slot] = i;
+                    }
+                    if (!collision) {
+                        return new Lookup(table, lengthFactor, firstFactor);
+                    }
+                }
+            }
+        }
+        throw new IllegalArgumentException("No collision-free lookup table for the line "
+                + (unified ? "Unified API IDs" : "feed IDs") + "; try a larger MAX_TABLE_MULTIPLE");
+    }
+
+    /**
+     * The hash the generated enum uses; must match the {@code slot} method it's given.
+     */
+    private static int slot(String key, int lengthFactor, int firstFactor, int tableLength) {
+        int length = key.length();
+        return (length * lengthFactor + key.charAt(0) * firstFactor + key.charAt(length - 1)) % tableLength;
+    }
+
+    /**
+     * @return array initialiser of the line ordinals in display order
+     */
+    private static String displayOrder(List<Line> lines) {
+        StringBuilder order = new StringBuilder("{");
+        for (Line line : sortByName(lines)) {
+            if (order.length() > 1) {
+                order.append(", ");
+            }
+            order.append(line.ordinal);
+        }
+        return order.append('}').toString();
+    }
+
+    /**
+     * @return the lines sorted by name, ignoring case; equal names keep their definition order
+     */
+    private static List<Line> sortByName(List<Line> lines) {
+        List<Line> sorted = new ArrayList<Line>(lines);
+        Collections.sort(sorted, new Comparator<Line>() {
+            @Override
+            public int compare(Line lhs, Line rhs) {
+                return lhs.name.compareToIgnoreCase(rhs.name);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Read and check the line definitions.
+     *
+     * @param definitions the line definition file
+     * @return the lines, in ordinal order
+     * @throws IllegalArgumentException if the file is malformed
+     */
+    private static List<Line> read(File definitions) throws IOException {
+        List<Line> lines = new ArrayList<Line>();
+        Set<String> seen = new HashSet<String>();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(definitions), "UTF-8"));
+        try {
+            String text;
+            int number = 0;
+            while ((text = in.readLine()) != null) {
+                number++;
+                text = text.trim();
+                if (text.length() == 0 || text.startsWith("#")) continue;
+
+                String[] fields = text.split("\\|", -1);
+                if (fields.length != FIELD_COUNT) {
+                    throw new IllegalArgumentException(definitions + ":" + number + ": expected "
+                            + FIELD_COUNT + " fields, found " + fields.length);
+                }
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim();
+                    if (fields[i].length() == 0) {
+                        throw new IllegalArgumentException(definitions + ":" + number + ": field " + (i + 1) + " is empty");
+                    }
+                }
+
+                Line line = new Line();
+                line.ordinal = lines.size();
+                line.constant = fields[0];
+                line.id = fields[1];
+                line.unifiedId = fields[2];
+                line.name = fields[3];
+                line.nameResource = fields[4];
+                line.foregroundColour = parseColour(definitions, number, fields[5]);
+                line.backgroundColour = parseColour(definitions, number, fields[6]);
+
+                if (!line.constant.matches("[A-Z][A-Z0-9_]*")) {
+                    throw new IllegalArgumentException(definitions + ":" + number + ": bad constant " + line.constant);
+                }
+                if (!line.nameResource.matches("[a-z][a-z0-9_]*")) {
+                    throw new IllegalArgumentException(definitions + ":" + number + ": bad resource name " + line.nameResource);
+                }
+                if (!seen.add("constant " + line.constant) || !seen.add("feed ID " + line.id)
+                        || !seen.add("Unified API ID " + line.unifiedId)) {
+                    throw new IllegalArgumentException(definitions + ":" + number + ": duplicate line");
+                }
+                lines.add(line);
+            }
+        } finally {
+            in.close();
+        }
+
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException(definitions + ": no lines defined");
+        }
+        if (lines.size() > Byte.MAX_VALUE) {
+            // Ordinals are stored in a byte in the status history
+            throw new IllegalArgumentException(definitions + ": too many lines");
+        }
+        return lines;
+    }
+
+    /**
+     * @return an ARGB colour from eight hex digits
+     */
+    private static int parseColour(File definitions, int number, String hex) {
+        if (!hex.matches("[0-9A-Fa-f]{8}")) {
+            throw new IllegalArgumentException(definitions + ":" + number + ": bad colour " + hex);
+        }
+        return (int) Long.parseLong(hex, 16);
+    }
+
+    private static String hex(int colour) {
+        String digits = Integer.toHexString(colour).toUpperCase();
+        while (digits.length() < 8) {
+            digits = "0" + digits;
+        }
+        return "0x" + digits;
+    }
+
+    /**
+     * @return the string as a Java string literal
+     */
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7E) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Write a generated file, creating its directory if need be.
+     */
+    private static void write(File file, CharSequence contents) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.append(contents);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * One line's definition.
+     */
+    private static class Line {
+        int ordinal;
+        String constant;
+        String id;
+        String unifiedId;
+        String name;
+        String nameResource;
+        int foregroundColour;
+        int backgroundColour;
+    }
+
+    /**
+     * A collision-free lookup table: line ordinals by slot, -1 for empty slots.
+     */
+    private static class Lookup {
+        final int[] table;
+        final int lengthFactor;
+        final int firstFactor;
+
+        Lookup(int[] table, int lengthFactor, int firstFactor) {
+            this.table = table;
+            this.lengthFactor = lengthFactor;
+            this.firstFactor = firstFactor;
+        }
+    }
+}
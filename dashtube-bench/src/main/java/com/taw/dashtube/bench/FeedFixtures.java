@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Line status feed documents for the benchmarks: the fixtures under {@code fixtures/}, in
+ * the same format as the TfL feed (BOM already removed), plus a synthetic feed with
+ * hundreds of lines generated on demand.
+ */
+public class FeedFixtures {
+
+    /** Every line running a good service. */
+    public static final String GOOD_SERVICE = "good_service";
+    /** Most lines disrupted, with long status details and branch disruptions. */
+    public static final String DISRUPTION = "disruption";
+    /** Generated feed with {@link #SYNTHETIC_LINES} lines. */
+    public static final String SYNTHETIC = "synthetic";
+
+    /** Number of lines in the synthetic feed. */
+    public static final int SYNTHETIC_LINES = 400;
+
+    /** IDs of the lines we know about, used for the first few synthetic lines. */
+    private static final String[] KNOWN_IDS = {"1", "2", "7", "9", "81", "8", "4", "11", "5", "82", "6", "3", "12"};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private FeedFixtures() {
+    }
+
+    /**
+     * Load the named feed.
+     *
+     * @param name one of {@link #GOOD_SERVICE}, {@link #DISRUPTION} or {@link #SYNTHETIC}
+     * @return the feed document, UTF-8 encoded
+     */
+    public static byte[] load(String name) throws IOException {
+        if (SYNTHETIC.equals(name)) {
+            return synthetic(SYNTHETIC_LINES).getBytes(UTF_8);
+        }
+
+        InputStream in = FeedFixtures.class.getResourceAsStream("/fixtures/" + name + ".xml");
+        if (in == null) {
+            throw new IOException("No such fixture: " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Generate a feed with the supplied number of lines. The first lines use the real line
+     * IDs; the rest use IDs we don't know about. Every third line is disrupted.
+     *
+     * @param lines number of lines
+     * @return the feed document
+     */
+    public static String synthetic(int lines) {
+        StringBuilder sb = new StringBuilder(lines * 400);
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n")
+          .append("<ArrayOfLineStatus xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" ")
+          .append("xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" xmlns=\"http://webservices.lul.co.uk/\">\n");
+
+        for (int i = 0; i < lines; i++) {
+            String id = (i < KNOWN_IDS.length) ? KNOWN_IDS[i] : String.valueOf(100 + i);
+            boolean disrupted = (i % 3 == 0);
+
+            sb.append("  <LineStatus ID=\"").append(i).append("\" StatusDetails=\"");
+            if (disrupted) {
+                sb.append("Minor delays on line ").append(id)
+                  .append(" due to an earlier signal failure. GOOD SERVICE on the rest of the line.");
+            }
+            sb.append("\">\n")
+              .append("    <BranchDisruptions />\n")
+              .append("    <Line ID=\"").append(id).append("\" Name=\"Line ").append(id).append("\" />\n")
+              .append("    <Status ID=\"").append(disrupted ? "MD" : "GS")
+              .append("\" CssClass=\"").append(disrupted ? "DisruptedService" : "GoodService")
+              .append("\" Description=\"").append(disrupted ? "Minor Delays" : "Good Service")
+              .append("\" IsActive=\"").append(disrupted).append("\">\n")
+              .append("      <StatusType ID=\"1\" Description=\"Line\" />\n")
+              .append("    </Status>\n")
+              .append("  </LineStatus>\n");
+        }
+
+        sb.append("</ArrayOfLineStatus>\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube.bench;
+
+import com.taw.dashtube.LineStatusFilter;
+import com.taw.dashtube.LineStatusParser;
+import com.taw.dashtube.StatusFormatter;
+import com.taw.dashtube.model.Favourites;
+import com.taw.dashtube.model.StatusSnapshot;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for each stage of the update pipeline - parse, filter and format - and for
+ * the three end to end, across feeds of different sizes and with and without favourites.
+ * Run with {@code gradle :dashtube-bench:jmh}, which adds the GC profiler so allocation
+ * rates are reported alongside throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    /** Templates, as in the app's string resources. */
+    private static final String LINE_STATUS = "%1$s \u2013 %2$s";
+    private static final String MORE_LINES = "\u2192 %1$s more (tap for info)";
+    /** As in DashTubeExtension. */
+    private static final int LINES_LIMIT = 4;
+
+    /** Favourite sets: none, or three lines (Central, Northern, Victoria). */
+    private static final String FAVOURITES_NONE = "none";
+    private static final String FAVOURITES_THREE = "three";
+
+    @Param({FeedFixtures.GOOD_SERVICE, FeedFixtures.DISRUPTION, FeedFixtures.SYNTHETIC})
+    public String feed;
+
+    @Param({FAVOURITES_NONE, FAVOURITES_THREE})
+    public String favourites;
+
+    private byte[] document;
+    private Favourites preferredLines;
+
+    private LineStatusParser parser;
+    private StatusFormatter formatter;
+
+    /** Parsed feed, for the filter and format benchmarks. */
+    private StatusSnapshot snapshot;
+    /** Slots of the filtered feed, for the format benchmark. */
+    private int[] filteredSlots;
+
+    @Setup
+    public void setUp() throws Exception {
+        document = FeedFixtures.load(feed);
+        preferredLines = FAVOURITES_THREE.equals(favourites)
+                ? Favourites.fromIds(new HashSet<String>(Arrays.asList("2", "5", "3")))
+                : Favourites.NONE;
+
+        parser = new LineStatusParser();
+        formatter = new StatusFormatter(LINE_STATUS, MORE_LINES, LINES_LIMIT);
+
+        snapshot = parse();
+        filteredSlots = LineStatusFilter.getFilteredResults(snapshot, preferredLines);
+    }
+
+    @Benchmark
+    public StatusSnapshot parse() throws Exception {
+        return parser.parse(new ByteArrayInputStream(document), "UTF-8");
+    }
+
+    @Benchmark
+    public int[] filter() {
+        return LineStatusFilter.getFilteredResults(snapshot, preferredLines);
+    }
+
+    @Benchmark
+    public String format() {
+        return formatter.format(snapshot, filteredSlots, !preferredLines.isEmpty());
+    }
+
+    @Benchmark
+    public String pipeline() throws Exception {
+        StatusSnapshot results = parse();
+        int[] filtered = LineStatusFilter.getFilteredResults(results, preferredLines);
+        return formatter.format(results, filtered, !preferredLines.isEmpty());
+    }
+}
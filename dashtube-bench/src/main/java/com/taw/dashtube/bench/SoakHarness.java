@@ -0,0 +1,353 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube.bench;
+
+import com.taw.dashtube.CircuitBreaker;
+import com.taw.dashtube.FeedBuffer;
+import com.taw.dashtube.LineStatusFilter;
+import com.taw.dashtube.LineStatusParser;
+import com.taw.dashtube.StatusDiff;
+import com.taw.dashtube.StatusFormatter;
+import com.taw.dashtube.UpdateScheduler;
+import com.taw.dashtube.model.Favourites;
+import com.taw.dashtube.model.StatusSnapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Soak test for the polling strategy: replays days of DashClock updates against a
+ * {@link StandInFeedServer}, on a simulated clock, through the same decisions and pipeline
+ * stages the extension uses - the {@link UpdateScheduler}, the {@link CircuitBreaker}, a
+ * conditional GET with gzip, the checksum check on the body, then parse, diff, filter and
+ * format - and reports what it cost: requests, bytes transferred, 304s, errors, how often
+ * the widget would have been republished, parse times and bytes allocated.
+ *
+ * The extension itself needs Android, so it isn't driven directly; DashClock's periodic
+ * updates (every 30 minutes) and screen-on updates (at random through the waking day) are
+ * simulated here, as is the extension's handling of them. Run with
+ * {@code gradle :dashtube-bench:soak [-Psoak.args="..."]}; options are
+ * <pre>
+ *   --days N           days to simulate (7)
+ *   --favourites IDS   comma-separated line IDs, e.g. 2,5,3 (none)
+ *   --latency MS       server latency per request (0)
+ *   --bandwidth BPS    server bandwidth limit in bytes per second (unlimited)
+ *   --timeout MS       client read timeout (2000)
+ *   --recordings DIR   replay HHMM.xml recordings rather than the standard day
+ * </pre>
+ */
+public class SoakHarness {
+
+    /** As in DashClock. */
+    private static final long PERIODIC_UPDATE_MS = TimeUnit.MINUTES.toMillis(30);
+    /** Mean gap between screen-on events during the waking day. */
+    private static final long MEAN_SCREEN_ON_MS = TimeUnit.MINUTES.toMillis(20);
+    /** Waking day, in hours, during which the screen gets turned on. */
+    private static final int WAKE_HOUR = 7;
+    private static final int SLEEP_HOUR = 23;
+
+    /** As in DashTubeExtension and FetchExecutor. */
+    private static final int LINES_LIMIT = 4;
+    private static final int BREAKER_THRESHOLD = 3;
+    private static final long BREAKER_OPEN_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long BREAKER_MAX_OPEN_MS = TimeUnit.MINUTES.toMillis(60);
+
+    /** Templates, as in the app's string resources. */
+    private static final String LINE_STATUS = "%1$s \u2013 %2$s";
+    private static final String MORE_LINES = "\u2192 %1$s more (tap for info)";
+
+    private int days = 7;
+    private Favourites favourites = Favourites.NONE;
+    private long latencyMs = 0;
+    private int bytesPerSecond = 0;
+    private int timeoutMs = 2000;
+    private File recordings;
+
+    /** Simulated time the soak starts: midnight at the start of a Monday, London time. */
+    private final long epoch;
+
+    private final UpdateScheduler scheduler = new UpdateScheduler();
+    private final CircuitBreaker breaker =
+            new CircuitBreaker(BREAKER_THRESHOLD, BREAKER_OPEN_MS, BREAKER_MAX_OPEN_MS);
+    private final FeedBuffer buffer = new FeedBuffer();
+    private final StatusFormatter formatter = new StatusFormatter(LINE_STATUS, MORE_LINES, LINES_LIMIT);
+    private final LineStatusParser parser;
+
+    /** Last body fetched, its checksum and validator. */
+    private byte[] lastBody;
+    private long lastChecksum;
+    private String etag;
+    /** Last statuses parsed, and the text last published. */
+    private StatusSnapshot snapshot = StatusSnapshot.EMPTY;
+    private String published;
+
+    private int updates;
+    private int fetches;
+    private int skipped;
+    private int rejected;
+    private int unchangedBodies;
+    private int errors;
+    private int publishes;
+    private long[] parseNanos = new long[64];
+    private int parses;
+
+    private SoakHarness() throws Exception {
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("Europe/London"));
+        calendar.clear();
+        calendar.set(2014, Calendar.MARCH, 3);
+        epoch = calendar.getTimeInMillis();
+
+        parser = new LineStatusParser();
+    }
+
+    public static void main(String[] args) throws Exception {
+        SoakHarness harness = new SoakHarness();
+        harness.parseArgs(args);
+        harness.run();
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            if ("--days".equals(option)) {
+                days = Integer.parseInt(value);
+            } else if ("--favourites".equals(option)) {
+                favourites = Favourites.fromIds(new HashSet<String>(Arrays.asList(value.split(","))));
+            } else if ("--latency".equals(option)) {
+                latencyMs = Long.parseLong(value);
+            } else if ("--bandwidth".equals(option)) {
+                bytesPerSecond = Integer.parseInt(value);
+            } else if ("--timeout".equals(option)) {
+                timeoutMs = Integer.parseInt(value);
+            } else if ("--recordings".equals(option)) {
+                recordings = new File(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        Timeline timeline = (recordings != null) ? Timeline.fromDirectory(recordings) : Timeline.standardDay();
+        StandInFeedServer server = new StandInFeedServer(timeline);
+        server.setLatencyMs(latencyMs);
+        server.setBytesPerSecond(bytesPerSecond);
+        server.setHangMs(timeoutMs * 2L);
+        server.start();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long started = System.nanoTime();
+
+        try {
+            URL url = new URL(server.getUrl());
+            Random random = new Random(42);
+            long end = TimeUnit.DAYS.toMillis(days);
+            long nextPeriodic = 0;
+            long nextScreenOn = nextScreenOn(0, random);
+
+            while (true) {
+                boolean screenOn = nextScreenOn < nextPeriodic;
+                long time = screenOn ? nextScreenOn : nextPeriodic;
+                if (time >= end) break;
+
+                if (screenOn) {
+                    nextScreenOn = nextScreenOn(time, random);
+                    // Only delivered if the extension has asked for them
+                    if (!scheduler.wantsScreenOnUpdates(epoch + time)) continue;
+                } else {
+                    nextPeriodic += PERIODIC_UPDATE_MS;
+                }
+
+                server.setTime(time);
+                update(url, epoch + time);
+            }
+        } finally {
+            server.stop();
+        }
+
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        report(server, allocated, elapsedMs);
+    }
+
+    /**
+     * @return time of the screen-on event after the supplied one, within the waking day
+     */
+    private static long nextScreenOn(long time, Random random) {
+        long next = time + (long) (-Math.log(1 - random.nextDouble()) * MEAN_SCREEN_ON_MS);
+        long hourOfDay = TimeUnit.MILLISECONDS.toHours(next % TimeUnit.DAYS.toMillis(1));
+        if (hourOfDay < WAKE_HOUR) {
+            next += TimeUnit.HOURS.toMillis(WAKE_HOUR - hourOfDay);
+        } else if (hourOfDay >= SLEEP_HOUR) {
+            next += TimeUnit.HOURS.toMillis(24 - hourOfDay + WAKE_HOUR);
+        }
+        return next;
+    }
+
+    /**
+     * Handle one background update, as the extension would.
+     */
+    private void update(URL url, long now) {
+        updates++;
+        if (lastBody != null && !scheduler.shouldFetch(true, now)) {
+            skipped++;
+            return;
+        }
+        if (!breaker.allowRequest(now)) {
+            rejected++;
+            return;
+        }
+
+        fetches++;
+        try {
+            boolean changed = fetch(url);
+            breaker.recordSuccess();
+            scheduler.recordFetch(now, hasDisruption(), changed);
+        } catch (Exception e) {
+            errors++;
+            breaker.recordFailure(now);
+        }
+    }
+
+    /**
+     * Fetch the feed, and if it's changed, parse and publish it.
+     *
+     * @return true if any statuses changed
+     */
+    private boolean fetch(URL url) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status);
+            }
+
+            InputStream in = connection.getInputStream();
+            try {
+                if ("gzip".equals(connection.getContentEncoding())) {
+                    in = new GZIPInputStream(in);
+                }
+                buffer.readFrom(in);
+            } finally {
+                in.close();
+            }
+            String newEtag = connection.getHeaderField("ETag");
+
+            if (buffer.getChecksum() == lastChecksum && buffer.contentEquals(lastBody)) {
+                unchangedBodies++;
+                etag = newEtag;
+                return false;
+            }
+
+            long start = System.nanoTime();
+            StatusSnapshot current = parser.parse(buffer.newInputStream(), "UTF-8");
+            recordParse(System.nanoTime() - start);
+
+            // Only take the validator once the body has parsed, so a bad body is fetched again
+            etag = newEtag;
+            lastBody = buffer.toByteArray();
+            lastChecksum = buffer.getChecksum();
+
+            StatusSnapshot previous = snapshot;
+            snapshot = current;
+            boolean changed = !StatusDiff.diff(previous, current).isEmpty();
+
+            int[] slots = LineStatusFilter.getFilteredResults(current, favourites);
+            String text = formatter.format(current, slots, !favourites.isEmpty());
+            if (!text.equals(published)) {
+                published = text;
+                publishes++;
+            }
+            return changed;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return true if any of the favourite lines (or any line, if none are set) is disrupted
+     */
+    private boolean hasDisruption() {
+        for (int slot : LineStatusFilter.getFilteredResults(snapshot, favourites)) {
+            if (snapshot.isActive(slot)) return true;
+        }
+        return false;
+    }
+
+    private void recordParse(long nanos) {
+        if (parses == parseNanos.length) {
+            parseNanos = Arrays.copyOf(parseNanos, parses * 2);
+        }
+        parseNanos[parses++] = nanos;
+    }
+
+    private void report(StandInFeedServer server, long allocated, long elapsedMs) {
+        long[] sorted = Arrays.copyOf(parseNanos, parses);
+        Arrays.sort(sorted);
+
+        System.out.printf("Simulated %d day(s) in %d ms%n", days, elapsedMs);
+        System.out.printf("  updates:          %d (%d answered from cache, %d refused by circuit breaker)%n",
+                updates, skipped, rejected);
+        System.out.printf("  fetches:          %d (%d errors)%n", fetches, errors);
+        System.out.printf("  server requests:  %d (%d not modified, %d faults)%n",
+                server.getRequests(), server.getNotModified(), server.getFaults());
+        System.out.printf("  bytes received:   %d (%.1f KB/day)%n",
+                server.getBytesSent(), server.getBytesSent() / 1024.0 / days);
+        System.out.printf("  unchanged bodies: %d%n", unchangedBodies);
+        System.out.printf("  parses:           %d%n", parses);
+        System.out.printf("  publishes:        %d%n", publishes);
+        System.out.printf("  parse time:       p50 %s, p90 %s, p99 %s%n",
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99));
+        System.out.printf("  allocated:        %d bytes (%d per update)%n",
+                allocated, updates > 0 ? allocated / updates : 0);
+    }
+
+    private static String percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) return "-";
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return String.format("%.3f ms", sorted[Math.max(0, index)] / 1e6);
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube.bench;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the TfL line status feed, for exercising the fetch path offline. Serves
+ * whichever document a {@link Timeline} says is current at the simulated time set by the
+ * caller, as TfL does: UTF-8 XML with a byte order mark, an ETag, 304s for matching
+ * {@code If-None-Match} requests and gzip when asked for. Latency and bandwidth limits can
+ * be injected, and the timeline can script faults.
+ *
+ * Counts requests and the bytes it sends, so callers can see what a polling strategy costs.
+ */
+public class StandInFeedServer {
+
+    /** Path the feed is served on. */
+    public static final String PATH = "/TrackerNet/LineStatus";
+
+    /** UTF-8 byte order mark, which TfL prefix the feed with. */
+    private static final byte[] BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+    /** Body sent for the GARBAGE fault. */
+    private static final byte[] GARBAGE = "<html><body>Service temporarily unavailable</body></html>".getBytes();
+    /** Rough size of the response headers, counted towards bytes sent. */
+    private static final int HEADER_BYTES = 250;
+
+    private final Timeline timeline;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /** Simulated time, in ms since the start of the soak. */
+    private final AtomicLong time = new AtomicLong();
+
+    /** Delay before each response, in ms. */
+    private volatile long latencyMs = 0;
+    /** Bandwidth limit, in bytes per second; 0 for none. */
+    private volatile int bytesPerSecond = 0;
+    /** How long a HANG fault holds the connection, in ms. */
+    private volatile long hangMs = 30 * 1000;
+
+    /** Bodies as sent (BOM included, gzipped or not), by document. */
+    private final Map<byte[], byte[]> plainBodies = new IdentityHashMap<byte[], byte[]>();
+    private final Map<byte[], byte[]> gzipBodies = new IdentityHashMap<byte[], byte[]>();
+    private final Map<byte[], String> etags = new IdentityHashMap<byte[], String>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong faults = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /**
+     * Create a server on a free local port; call {@link #start()} to start serving.
+     */
+    public StandInFeedServer(Timeline timeline) throws IOException {
+        this.timeline = timeline;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(PATH, new FeedHandler());
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return URL of the feed
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * Set the simulated time, which decides the document served and any fault.
+     *
+     * @param time ms since the start of the soak
+     */
+    public void setTime(long time) {
+        this.time.set(time);
+    }
+
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    public void setBytesPerSecond(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public void setHangMs(long hangMs) {
+        this.hangMs = hangMs;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    public long getFaults() {
+        return faults.get();
+    }
+
+    /**
+     * @return bytes sent, bodies plus an allowance for headers
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    private synchronized byte[] body(byte[] document, boolean gzip) throws IOException {
+        Map<byte[], byte[]> bodies = gzip ? gzipBodies : plainBodies;
+        byte[] body = bodies.get(document);
+        if (body == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(document.length + BOM.length);
+            OutputStream os = gzip ? new GZIPOutputStream(out) : out;
+            os.write(BOM);
+            os.write(document);
+            os.close();
+            body = out.toByteArray();
+            bodies.put(document, body);
+        }
+        return body;
+    }
+
+    private synchronized String etag(byte[] document) {
+        String etag = etags.get(document);
+        if (etag == null) {
+            CRC32 crc = new CRC32();
+            crc.update(document);
+            etag = "\"" + Long.toHexString(crc.getValue()) + "\"";
+            etags.put(document, etag);
+        }
+        return etag;
+    }
+
+    private class FeedHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                requests.incrementAndGet();
+                long now = time.get();
+                pause(latencyMs);
+
+                Timeline.Fault fault = timeline.faultAt(now);
+                switch (fault) {
+                    case SERVER_ERROR:
+                        faults.incrementAndGet();
+                        send(exchange, 503, null, false);
+                        return;
+                    case HANG:
+                        faults.incrementAndGet();
+                        pause(hangMs);
+                        return;
+                    case GARBAGE:
+                        faults.incrementAndGet();
+                        exchange.getResponseHeaders().set("Content-Type", "text/html");
+                        send(exchange, 200, GARBAGE, false);
+                        return;
+                    default:
+                        break;
+                }
+
+                byte[] document = timeline.feedAt(now);
+                String etag = etag(document);
+                Headers headers = exchange.getResponseHeaders();
+                headers.set("ETag", etag);
+                headers.set("Content-Type", "text/xml; charset=utf-8");
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    send(exchange, 304, null, false);
+                    return;
+                }
+
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+                if (gzip) {
+                    headers.set("Content-Encoding", "gzip");
+                }
+                // A truncated response only counts as a fault if there's a body to truncate
+                boolean truncate = fault == Timeline.Fault.TRUNCATED;
+                if (truncate) {
+                    faults.incrementAndGet();
+                }
+                send(exchange, 200, body(document, gzip), truncate);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Send the response, throttled to the bandwidth limit.
+         *
+         * @param truncate send only the first half of the body, then drop the connection
+         */
+        private void send(HttpExchange exchange, int status, byte[] body, boolean truncate) throws IOException {
+            bytesSent.addAndGet(HEADER_BYTES);
+            if (body == null) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(status, body.length);
+            int length = truncate ? body.length / 2 : body.length;
+            OutputStream out = exchange.getResponseBody();
+            int chunk = (bytesPerSecond > 0) ? Math.max(1, bytesPerSecond / 10) : length;
+            for (int offset = 0; offset < length; offset += chunk) {
+                int n = Math.min(chunk, length - offset);
+                out.write(body, offset, n);
+                out.flush();
+                bytesSent.addAndGet(n);
+                if (bytesPerSecond > 0) {
+                    pause(n * 1000L / bytesPerSecond);
+                }
+            }
+            if (!truncate) {
+                out.close();
+            }
+        }
+
+        private void pause(long ms) {
+            if (ms <= 0) return;
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
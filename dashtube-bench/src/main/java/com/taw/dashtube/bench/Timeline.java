@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scripted day for the {@link StandInFeedServer}: which feed document is current, and
+ * which fault (if any) the server should simulate, at each minute of the day. The same
+ * day repeats for as many days as the soak runs.
+ *
+ * Build one with {@link #feed} and {@link #fault} calls in time order, or load recorded
+ * feeds from a directory with {@link #fromDirectory(File)}.
+ */
+public class Timeline {
+
+    /** Faults the server can simulate. */
+    public enum Fault {
+        /** Serve normally. */
+        NONE,
+        /** Respond 503 Service Unavailable. */
+        SERVER_ERROR,
+        /** Accept the request and never respond, so the client times out. */
+        HANG,
+        /** Send half of the document, then close the connection. */
+        TRUNCATED,
+        /** Send a 200 with a body that isn't the feed. */
+        GARBAGE
+    }
+
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    /** Feed changes: minute of day, and the document from then on. */
+    private final List<Entry<byte[]>> feeds = new ArrayList<Entry<byte[]>>();
+    /** Fault changes: minute of day, and the fault from then on. */
+    private final List<Entry<Fault>> faults = new ArrayList<Entry<Fault>>();
+
+    /**
+     * The default scenario: good service overnight, a disrupted morning peak with a half-hour
+     * outage in the middle of it, clearing mid-morning, then a second disruption through the
+     * evening peak that starts with a spell of truncated responses.
+     */
+    public static Timeline standardDay() throws IOException {
+        byte[] good = FeedFixtures.load(FeedFixtures.GOOD_SERVICE);
+        byte[] disrupted = FeedFixtures.load(FeedFixtures.DISRUPTION);
+
+        return new Timeline()
+                .feed(0, 0, good)
+                .feed(7, 40, disrupted)
+                .fault(8, 20, Fault.SERVER_ERROR)
+                .fault(8, 50, Fault.NONE)
+                .feed(10, 5, good)
+                .feed(17, 15, disrupted)
+                .fault(17, 15, Fault.TRUNCATED)
+                .fault(17, 35, Fault.NONE)
+                .feed(19, 40, good);
+    }
+
+    /**
+     * Replay recorded feeds: each file in the directory named {@code HHMM.xml} (e.g.
+     * {@code 0745.xml}) becomes current at that time of day.
+     *
+     * @param dir directory of recordings
+     */
+    public static Timeline fromDirectory(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        Arrays.sort(files);
+
+        Timeline timeline = new Timeline();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.matches("\\d{4}\\.xml")) continue;
+
+            int hours = Integer.parseInt(name.substring(0, 2));
+            int minutes = Integer.parseInt(name.substring(2, 4));
+            timeline.feed(hours, minutes, read(file));
+        }
+        if (timeline.feeds.isEmpty()) {
+            throw new IOException("No HHMM.xml recordings in " + dir);
+        }
+        return timeline;
+    }
+
+    /**
+     * Make the supplied document current from the given time of day.
+     */
+    public Timeline feed(int hours, int minutes, byte[] document) {
+        feeds.add(new Entry<byte[]>(hours * 60 + minutes, document));
+        return this;
+    }
+
+    /**
+     * Simulate the supplied fault from the given time of day.
+     */
+    public Timeline fault(int hours, int minutes, Fault fault) {
+        faults.add(new Entry<Fault>(hours * 60 + minutes, fault));
+        return this;
+    }
+
+    /**
+     * @param time time since the start of the soak, in ms; day 0 starts at midnight
+     * @return the document current at that time
+     */
+    public byte[] feedAt(long time) {
+        byte[] current = at(feeds, time);
+        // Before the first entry of the day, the previous day's last entry still applies
+        return (current != null) ? current : feeds.get(feeds.size() - 1).value;
+    }
+
+    /**
+     * @param time time since the start of the soak, in ms
+     * @return the fault current at that time
+     */
+    public Fault faultAt(long time) {
+        Fault current = at(faults, time);
+        return (current != null) ? current : Fault.NONE;
+    }
+
+    private static <T> T at(List<Entry<T>> entries, long time) {
+        long minute = (time % DAY_MS) / MINUTE_MS;
+        T current = null;
+        for (Entry<T> entry : entries) {
+            if (entry.minute > minute) break;
+            current = entry.value;
+        }
+        return current;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] document = new byte[(int) file.length()];
+            int offset = 0;
+            int read;
+            while (offset < document.length && (read = in.read(document, offset, document.length - offset)) != -1) {
+                offset += read;
+            }
+            return document;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class Entry<T> {
+        final int minute;
+        final T value;
+
+        Entry(int minute, T value) {
+            this.minute = minute;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with full jitter: the delay before retry {@code n} is chosen at random
+ * between zero and {@code min(maxDelay, baseDelay * 2^n)}, so clients that failed together
+ * don't all retry together.
+ */
+public class Backoff {
+
+    /** Delay bound for the first retry, in ms. */
+    private final long baseDelayMs;
+    /** Upper limit on the delay bound, in ms. */
+    private final long maxDelayMs;
+    /** Source of jitter. */
+    private final Random random;
+
+    /**
+     * @param baseDelayMs delay bound for the first retry, in ms
+     * @param maxDelayMs upper limit on the delay bound, in ms
+     * @param random source of jitter
+     */
+    public Backoff(long baseDelayMs, long maxDelayMs, Random random) {
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.random = random;
+    }
+
+    /**
+     * @param retry number of the retry, from 0
+     * @return how long to wait before it, in ms
+     */
+    public long getDelay(int retry) {
+        long bound = maxDelayMs;
+        if (retry < 30) {
+            bound = Math.min(maxDelayMs, baseDelayMs << retry);
+        }
+        return (long) (random.nextDouble() * bound);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+/**
+ * Stops the extension hammering the feed while it's down. After a run of consecutive
+ * failed fetches the circuit opens, and no requests are made until a cool-off period has
+ * passed; then a single probe request is let through (half-open). If the probe succeeds
+ * the circuit closes again; if it fails, the circuit reopens with a longer cool-off, up to
+ * a limit.
+ *
+ * Times are passed in rather than read from the clock, as with {@link UpdateScheduler}.
+ * Thread-safe.
+ */
+public class CircuitBreaker {
+
+    /** Circuit states. */
+    public enum State {
+        /** Requests flow normally. */
+        CLOSED,
+        /** Requests are refused until the cool-off has passed. */
+        OPEN,
+        /** A single probe request is in flight. */
+        HALF_OPEN
+    }
+
+    /** Consecutive failures that open the circuit. */
+    private final int failureThreshold;
+    /** Cool-off after the circuit first opens, in ms. */
+    private final long initialOpenMs;
+    /** Longest cool-off, in ms. */
+    private final long maxOpenMs;
+
+    /** Current state. */
+    private State state = State.CLOSED;
+    /** Consecutive failures while closed. */
+    private int failures = 0;
+    /** When the circuit last opened. */
+    private long openedAt;
+    /** Current cool-off; doubled each time a probe fails. */
+    private long openMs;
+
+    /**
+     * @param failureThreshold consecutive failures that open the circuit
+     * @param initialOpenMs cool-off after the circuit first opens, in ms
+     * @param maxOpenMs longest cool-off, in ms
+     */
+    public CircuitBreaker(int failureThreshold, long initialOpenMs, long maxOpenMs) {
+        this.failureThreshold = failureThreshold;
+        this.initialOpenMs = initialOpenMs;
+        this.maxOpenMs = maxOpenMs;
+        this.openMs = initialOpenMs;
+    }
+
+    /**
+     * Check whether a request may be made. Once an open circuit's cool-off has passed, the
+     * first caller is allowed through as the probe and the circuit goes half-open; others
+     * are refused until the probe's outcome is recorded.
+     *
+     * @param now current time
+     * @return true if the request may go ahead
+     */
+    public synchronized boolean allowRequest(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAt >= openMs) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Record a successful request, closing the circuit.
+     */
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        openMs = initialOpenMs;
+    }
+
+    /**
+     * Record a failed request (after any retries), opening the circuit if there have been
+     * enough in a row, or reopening it if this was the probe.
+     *
+     * @param now time of the failure
+     */
+    public synchronized void recordFailure(long now) {
+        if (state == State.HALF_OPEN) {
+            openMs = Math.min(openMs * 2, maxOpenMs);
+            open(now);
+        } else if (state == State.CLOSED && ++failures >= failureThreshold) {
+            open(now);
+        }
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+        failures = 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Keeps status polling within the user's data caps on metered connections. Bytes fetched
+ * over metered networks are counted against a daily and a monthly cap (either of which may
+ * be unset), and as the usage nears a cap, polling is cut back in stages rather than stopped
+ * outright:
+ *
+ * <ul>
+ *   <li>{@link Level#NORMAL} - under {@value #STRETCH_PERCENT}% of both caps, or not metered;</li>
+ *   <li>{@link Level#STRETCHED} - background polling intervals are doubled;</li>
+ *   <li>{@link Level#CONSERVE} - from {@value #CONSERVE_PERCENT}%, intervals are quadrupled,
+ *       there's no falling back to the whole-network feed when a favourite lines' request fails,
+ *       and planned works aren't fetched. Which statuses are fetched doesn't change: a user
+ *       with favourites only ever fetches theirs, and one without still needs the whole
+ *       network's;</li>
+ *   <li>{@link Level#STOPPED} - once a cap is reached, nothing is fetched until the day or
+ *       month rolls over, or the user raises the cap.</li>
+ * </ul>
+ *
+ * Roaming always counts as at least {@code CONSERVE}. Days and months are those of the
+ * supplied time zone, normally the device's, as that's what a data plan's are.
+ *
+ * Thread-safe.
+ */
+public class DataBudget {
+
+    /**
+     * How hard to cut back on fetching.
+     */
+    public enum Level {
+        NORMAL(1),
+        STRETCHED(2),
+        CONSERVE(4),
+        STOPPED(4);
+
+        /** What to multiply polling intervals by. */
+        private final int intervalFactor;
+
+        Level(int intervalFactor) {
+            this.intervalFactor = intervalFactor;
+        }
+
+        public int getIntervalFactor() {
+            return intervalFactor;
+        }
+
+        /**
+         * @return true if fetches are allowed at all
+         */
+        public boolean allowsFetch() {
+            return this != STOPPED;
+        }
+
+        /**
+         * @return true if fetches beyond the usual status request - the whole-network feed
+         *         as a fallback for a favourite lines' request, and planned works - are allowed
+         */
+        public boolean allowsFullFetch() {
+            return this == NORMAL || this == STRETCHED;
+        }
+    }
+
+    /** Percentage of a cap from which intervals are stretched. */
+    public static final int STRETCH_PERCENT = 75;
+    /** Percentage of a cap from which only essential fetches are made. */
+    public static final int CONSERVE_PERCENT = 90;
+
+    /** For working out the day and month. */
+    private final Calendar calendar;
+
+    /** Daily cap in bytes; 0 for none. */
+    private long dailyCap = 0;
+    /** Monthly cap in bytes; 0 for none. */
+    private long monthlyCap = 0;
+
+    /** Day the daily count is for, as {@link #dayOf}. */
+    private int day = 0;
+    /** Metered bytes fetched that day. */
+    private long dayBytes = 0;
+    /** Month the monthly count is for, as {@link #monthOf}. */
+    private int month = 0;
+    /** Metered bytes fetched that month. */
+    private long monthBytes = 0;
+
+    /**
+     * @param zone time zone the days and months are in
+     */
+    public DataBudget(TimeZone zone) {
+        calendar = new GregorianCalendar(zone);
+    }
+
+    /**
+     * @param dailyCap bytes allowed per day; 0 for no cap
+     * @param monthlyCap bytes allowed per month; 0 for no cap
+     */
+    public synchronized void setCaps(long dailyCap, long monthlyCap) {
+        this.dailyCap = Math.max(dailyCap, 0);
+        this.monthlyCap = Math.max(monthlyCap, 0);
+    }
+
+    /**
+     * Restore counts saved from {@link #getDay()}, {@link #getDayBytes(long)} and so on.
+     */
+    public synchronized void restore(int day, long dayBytes, int month, long monthBytes) {
+        this.day = day;
+        this.dayBytes = dayBytes;
+        this.month = month;
+        this.monthBytes = monthBytes;
+    }
+
+    /**
+     * Count bytes fetched over a metered connection.
+     *
+     * @param bytes bytes sent and received
+     * @param now time of the fetch
+     */
+    public synchronized void record(long bytes, long now) {
+        roll(now);
+        dayBytes += Math.max(bytes, 0);
+        monthBytes += Math.max(bytes, 0);
+    }
+
+    /**
+     * @param now current time
+     * @param metered whether the current connection is metered
+     * @param roaming whether the current connection is roaming
+     * @return how hard to cut back on fetching
+     */
+    public synchronized Level getLevel(long now, boolean metered, boolean roaming) {
+        if (!metered && !roaming) {
+            return Level.NORMAL;
+        }
+        roll(now);
+
+        int percent = Math.max(percentOf(dayBytes, dailyCap), percentOf(monthBytes, monthlyCap));
+        Level level;
+        if (percent >= 100) {
+            level = Level.STOPPED;
+        } else if (percent >= CONSERVE_PERCENT) {
+            level = Level.CONSERVE;
+        } else if (percent >= STRETCH_PERCENT) {
+            level = Level.STRETCHED;
+        } else {
+            level = Level.NORMAL;
+        }
+
+        if (roaming && level.compareTo(Level.CONSERVE) < 0) {
+            level = Level.CONSERVE;
+        }
+        return level;
+    }
+
+    /**
+     * @param now current time
+     * @return metered bytes fetched today
+     */
+    public synchronized long getDayBytes(long now) {
+        roll(now);
+        return dayBytes;
+    }
+
+    /**
+     * @param now current time
+     * @return metered bytes fetched this month
+     */
+    public synchronized long getMonthBytes(long now) {
+        roll(now);
+        return monthBytes;
+    }
+
+    /**
+     * @return the day the daily count is for, for saving
+     */
+    public synchronized int getDay() {
+        return day;
+    }
+
+    /**
+     * @return the month the monthly count is for, for saving
+     */
+    public synchronized int getMonth() {
+        return month;
+    }
+
+    /**
+     * Start new counts if the day or month has changed since the last fetch.
+     */
+    private void roll(long now) {
+        int today = dayOf(now);
+        if (today != day) {
+            day = today;
+            dayBytes = 0;
+        }
+        int thisMonth = monthOf(now);
+        if (thisMonth != month) {
+            month = thisMonth;
+            monthBytes = 0;
+        }
+    }
+
+    /**
+     * @return the day of the supplied time, as year * 1000 + day of year
+     */
+    private int dayOf(long now) {
+        calendar.setTimeInMillis(now);
+        return calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    /**
+     * @return the month of the supplied time, as year * 12 + month
+     */
+    private int monthOf(long now) {
+        calendar.setTimeInMillis(now);
+        return calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+    }
+
+    /**
+     * @return how much of the cap has been used, as a percentage; 0 if there's no cap
+     */
+    private static int percentOf(long bytes, long cap) {
+        if (cap <= 0) return 0;
+        return (int) Math.min(bytes * 100 / cap, 100);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Reusable buffer for a feed response body, kept as raw bytes. TfL prefix the feed with a
+ * UTF-8 byte order mark, which is dropped as the body is read, so the parser is handed the
+ * document itself; a CRC32 checksum of the body is worked out at the same time, so an
+ * unchanged feed can be spotted without decoding or parsing it.
+ *
+ * The buffer grows to fit the largest body seen and is then reused. Not thread-safe.
+ */
+public class FeedBuffer {
+
+    /** Initial capacity; enough for a typical uncompressed feed. */
+    private static final int INITIAL_CAPACITY = 32 * 1024;
+
+    /** UTF-8 encoding of U+FEFF, the byte order mark. */
+    private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    /** Body bytes, BOM included if there was one. */
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    /** Start of the body proper, i.e. past any BOM. */
+    private int offset;
+    /** End of the body. */
+    private int end;
+
+    /** Checksums the body. */
+    private final CRC32 crc = new CRC32();
+    /** Checksum of the body proper. */
+    private long checksum;
+
+    /**
+     * Read the whole of the supplied stream into the buffer, replacing what was there. The
+     * stream is not closed.
+     *
+     * @param in stream to read; not null, so callers must decide what a missing body means
+     */
+    public void readFrom(InputStream in) throws IOException {
+        if (in == null) {
+            throw new IllegalArgumentException("No stream to read");
+        }
+        end = 0;
+        int read;
+        while ((read = in.read(buffer, end, buffer.length - end)) != -1) {
+            end += read;
+            if (end == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+
+        offset = hasBom() ? UTF8_BOM.length : 0;
+
+        crc.reset();
+        crc.update(buffer, offset, end - offset);
+        checksum = crc.getValue();
+    }
+
+    /**
+     * @return true if the buffer starts with a UTF-8 byte order mark
+     */
+    private boolean hasBom() {
+        if (end < UTF8_BOM.length) return false;
+
+        for (int i = 0; i < UTF8_BOM.length; i++) {
+            if (buffer[i] != UTF8_BOM[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return CRC32 checksum of the body, BOM excluded
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return length of the body in bytes, BOM excluded
+     */
+    public int getLength() {
+        return end - offset;
+    }
+
+    /**
+     * Check whether the body is the same as a previous one.
+     *
+     * @param body previous body, as returned by {@link #toByteArray()}; may be null
+     * @return true if the bodies are identical
+     */
+    public boolean contentEquals(byte[] body) {
+        if (body == null || body.length != end - offset) return false;
+
+        for (int i = 0; i < body.length; i++) {
+            if (body[i] != buffer[offset + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a stream over the body, BOM excluded; only valid until the buffer is next read into
+     */
+    public InputStream newInputStream() {
+        return new ByteArrayInputStream(buffer, offset, end - offset);
+    }
+
+    /**
+     * @return a copy of the body, BOM excluded
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(buffer, offset, end);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of durations, in log-spaced buckets, for working out percentiles without
+ * keeping (or sorting) the samples. Each bucket is about 19% wider than the one before,
+ * from 0.05 ms up to around 14 minutes, so a percentile is accurate to within that; anything
+ * longer lands in the last bucket.
+ *
+ * Not thread-safe; fill one from a single thread, then read it.
+ */
+public class LatencyHistogram {
+
+    /** Upper bound of the first bucket, in ns. */
+    private static final long FIRST_BOUND_NS = 50 * 1000;
+    /** Buckets per doubling of duration. */
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int BUCKETS = 24 * BUCKETS_PER_DOUBLING + 1;
+
+    /** Upper bound of each bucket, in ns; shared by all histograms. */
+    private static final long[] BOUNDS = new long[BUCKETS];
+
+    static {
+        for (int i = 0; i < BUCKETS; i++) {
+            BOUNDS[i] = (long) (FIRST_BOUND_NS * Math.pow(2, (double) i / BUCKETS_PER_DOUBLING));
+        }
+        BOUNDS[BUCKETS - 1] = Long.MAX_VALUE;
+    }
+
+    private final int[] counts = new int[BUCKETS];
+    private int count;
+    private long max;
+
+    /**
+     * @param nanos duration to record
+     */
+    public void record(long nanos) {
+        int bucket = Arrays.binarySearch(BOUNDS, nanos);
+        counts[bucket >= 0 ? bucket : -bucket - 1]++;
+        count++;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    /**
+     * @return number of durations recorded
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile percentile to find, from 0 to 100
+     * @return upper bound of the bucket holding that percentile, in ns, capped at the longest
+     *         duration recorded; 0 if none have been
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], max);
+            }
+        }
+        return max;
+    }
+}
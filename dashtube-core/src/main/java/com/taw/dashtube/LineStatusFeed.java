@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.taw.dashtube.model.StatusSnapshot;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Entry point to the parse stage of the update pipeline: parses feed documents, reporting
+ * problems through a {@link Logger}. Filtering is left to {@link LineStatusFilter}.
+ */
+public class LineStatusFeed {
+
+    /** Logging tag. */
+    private static final String TAG = "DashTubeFeed";
+
+    /**
+     * Line status parsers. Feeds are parsed on whichever thread is fetching - the extension's
+     * worker, or the app's background refresh thread - so each thread gets its own rather
+     * than relying on the caller to serialise them.
+     */
+    private final ThreadLocal<LineStatusParser> parser = new ThreadLocal<LineStatusParser>();
+
+    /** Where to report parsing problems. */
+    private final Logger logger;
+
+    public LineStatusFeed(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Parse the feed directly from a response stream. Returns at least an empty snapshot (if
+     * the feed lists no lines), or null if we had a problem parsing. The stream is not closed.
+     *
+     * @param in stream to parse
+     * @param encoding character encoding of the stream, or null to detect it from the XML declaration
+     * @return Populated {@code StatusSnapshot}, or null if there was a parsing issue
+     */
+    public StatusSnapshot parse(InputStream in, String encoding) {
+        try {
+            return getParser().parse(in, encoding);
+        } catch (XmlPullParserException xppe) {
+            logger.e(TAG, "Problem parsing status response", xppe);
+            return null;
+        } catch (IOException ioe) {
+            logger.e(TAG, "Problem parsing status response", ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Get the calling thread's parser, creating it on first use.
+     */
+    private LineStatusParser getParser() throws XmlPullParserException {
+        LineStatusParser p = parser.get();
+        if (p == null) {
+            p = new LineStatusParser();
+            parser.set(p);
+        }
+        return p;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.taw.dashtube.model.Favourites;
+import com.taw.dashtube.model.StatusSnapshot;
+
+/**
+ * Filters parsed line statuses against the user's favourites.
+ */
+public class LineStatusFilter {
+
+    /** Result of filtering an empty snapshot. */
+    private static final int[] NONE = new int[0];
+
+    private LineStatusFilter() {
+    }
+
+    /**
+     * Filters the snapshot down to just the lines in the supplied favourites, or all of them
+     * if there are none. The snapshot already lists its lines in tube name order, which the
+     * result preserves.
+     *
+     * @param snapshot The parsed line statuses
+     * @param favourites the user's favourite lines
+     * @return slots of the lines to show, in display order
+     */
+    public static int[] getFilteredResults(StatusSnapshot snapshot, Favourites favourites) {
+        int size = snapshot.size();
+        if (size == 0) return NONE;
+
+        boolean filtered = !favourites.isEmpty();
+        int[] slots = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int slot = snapshot.getSlot(i);
+            if (!filtered || favourites.contains(slot)) {
+                slots[count++] = slot;
+            }
+        }
+
+        if (count == size) return slots;
+
+        int[] filteredSlots = new int[count];
+        System.arraycopy(slots, 0, filteredSlots, 0, count);
+        return filteredSlots;
+    }
+}
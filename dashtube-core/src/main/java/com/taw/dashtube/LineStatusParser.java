@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.taw.dashtube.model.StatusSnapshot;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Hand-written streaming decoder for the TfL {@code ArrayOfLineStatus} feed. Walks the
+ * document once with an {@code XmlPullParser}, passing the handful of attributes we use
+ * straight to a {@link StatusSnapshot.Builder} and skipping everything else (branch disruptions,
+ * status types and so on) without building it.
+ *
+ * Not thread-safe; each instance holds on to its own pull parser, so use one per thread.
+ */
+public class LineStatusParser {
+
+    /** Element names of interest. */
+    private static final String ARRAY_OF_LINE_STATUS = "ArrayOfLineStatus";
+    private static final String LINE_STATUS = "LineStatus";
+    private static final String LINE = "Line";
+    private static final String STATUS = "Status";
+
+    /** Attribute names of interest. */
+    private static final String ATTR_ID = "ID";
+    private static final String ATTR_NAME = "Name";
+    private static final String ATTR_STATUS_DETAILS = "StatusDetails";
+    private static final String ATTR_DESCRIPTION = "Description";
+    private static final String ATTR_IS_ACTIVE = "IsActive";
+
+    /** Pull parser; reset with new input on each parse. */
+    private final XmlPullParser parser;
+
+    public LineStatusParser() throws XmlPullParserException {
+        // Namespace processing is off; the feed declares a default namespace only, and we
+        // match on local names, so there's nothing to gain from resolving it
+        parser = XmlPullParserFactory.newInstance().newPullParser();
+    }
+
+    /**
+     * Parse the feed from the supplied stream. The stream is not closed.
+     *
+     * @param in stream containing the feed
+     * @param encoding character encoding of the stream, or null to detect it from the XML declaration
+     * @return snapshot of the feed's line statuses; empty if the feed has no lines
+     */
+    public StatusSnapshot parse(InputStream in, String encoding) throws XmlPullParserException, IOException {
+        parser.setInput(in, encoding);
+        return parseDocument();
+    }
+
+    /**
+     * Parse the feed from the supplied reader. The reader is not closed.
+     *
+     * @param reader reader containing the feed
+     * @return snapshot of the feed's line statuses; empty if the feed has no lines
+     */
+    public StatusSnapshot parse(Reader reader) throws XmlPullParserException, IOException {
+        parser.setInput(reader);
+        return parseDocument();
+    }
+
+    /**
+     * Parse from the root element down.
+     */
+    private StatusSnapshot parseDocument() throws XmlPullParserException, IOException {
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, null, ARRAY_OF_LINE_STATUS);
+
+        StatusSnapshot.Builder builder = new StatusSnapshot.Builder();
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            if (LINE_STATUS.equals(parser.getName())) {
+                parseLineStatus(builder);
+            } else {
+                skip();
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Parse a {@code LineStatus} element into the builder; the parser is positioned on its start tag.
+     */
+    private void parseLineStatus(StatusSnapshot.Builder builder) throws XmlPullParserException, IOException {
+        String statusDetails = parser.getAttributeValue(null, ATTR_STATUS_DETAILS);
+        String id = null;
+        String lineName = null;
+        String description = null;
+        boolean isActive = false;
+
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            String name = parser.getName();
+            if (LINE.equals(name)) {
+                id = parser.getAttributeValue(null, ATTR_ID);
+                lineName = parser.getAttributeValue(null, ATTR_NAME);
+            } else if (STATUS.equals(name)) {
+                description = parser.getAttributeValue(null, ATTR_DESCRIPTION);
+                isActive = "true".equals(parser.getAttributeValue(null, ATTR_IS_ACTIVE));
+            }
+            // Line and Status attributes are all read; skip over their (unused) children
+            skip();
+        }
+
+        builder.add(id, lineName, description, isActive, statusDetails);
+    }
+
+    /**
+     * Skip the current element and all of its children, leaving the parser on its end tag.
+     */
+    private void skip() throws XmlPullParserException, IOException {
+        int depth = 1;
+        while (depth != 0) {
+            switch (parser.next()) {
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    throw new XmlPullParserException("Unexpected end of document", parser, null);
+            }
+        }
+    }
+}
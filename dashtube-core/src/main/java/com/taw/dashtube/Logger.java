@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+/**
+ * Minimal logging interface, so that code shared with the JVM-only modules doesn't depend
+ * on {@code android.util.Log}.
+ */
+public interface Logger {
+
+    /** Discards everything. */
+    Logger NONE = new Logger() {
+        @Override
+        public void w(String tag, String msg, Throwable tr) {
+        }
+
+        @Override
+        public void e(String tag, String msg, Throwable tr) {
+        }
+    };
+
+    /**
+     * Log a warning.
+     *
+     * @param tag logging tag
+     * @param msg message
+     * @param tr exception, or null
+     */
+    void w(String tag, String msg, Throwable tr);
+
+    /**
+     * Log an error.
+     *
+     * @param tag logging tag
+     * @param msg message
+     * @param tr exception, or null
+     */
+    void e(String tag, String msg, Throwable tr);
+}
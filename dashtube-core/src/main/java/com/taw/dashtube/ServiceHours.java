@@ -0,0 +1,241 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+import com.taw.dashtube.model.Favourites;
+import com.taw.dashtube.model.Tube;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * When each line is running, so updates can be skipped while none of the lines the user
+ * cares about are. Hours are approximate - they're the span from first to last train over
+ * the line as a whole - and are looked up in a table built once, by line and type of day:
+ * <ul>
+ *     <li>Underground lines run from early morning until after midnight, and start later on Sundays.</li>
+ *     <li>Night Tube lines run through Friday and Saturday nights.</li>
+ *     <li>The DLR and Overground keep slightly different hours, and the Overground runs overnight at weekends.</li>
+ *     <li>Waterloo &amp; City runs Monday to Saturday only, and starts later on Saturdays.</li>
+ *     <li>Holidays (supplied as dates) get Sunday hours; on Christmas Day nothing runs.</li>
+ * </ul>
+ * Each day's service is an opening and closing minute relative to that day's midnight, with
+ * closing times past 24:00 running into the next day; so checking a line is a couple of
+ * comparisons against today's and yesterday's hours. Nothing is allocated per check, and
+ * it's safe to use from any thread.
+ */
+public class ServiceHours {
+
+    /** Day types, indexing the hours table. */
+    private static final int MONDAY = 0;
+    private static final int FRIDAY = 4;
+    private static final int SATURDAY = 5;
+    private static final int SUNDAY = 6;
+    private static final int HOLIDAY = 7;
+    private static final int CLOSED = 8;
+    private static final int DAY_TYPES = 9;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final long MS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final long MS_PER_MINUTE = 60 * 1000L;
+
+    /** Days since the epoch of 1 January 1970, which was a Thursday; add this to get days since a Monday. */
+    private static final int EPOCH_DAY_OF_WEEK = 3;
+
+    /** Lines that run through Friday and Saturday nights. */
+    private static final Tube[] NIGHT_LINES = {
+            Tube.CENTRAL, Tube.JUBILEE, Tube.NORTHERN, Tube.PICADILLY, Tube.VICTORIA, Tube.OVERGROUND
+    };
+
+    /** Opening minute of each line on each type of day, by ordinal then day type. */
+    private final int[][] opens = new int[Tube.COUNT][DAY_TYPES];
+    /** Closing minute of each line on each type of day; may be past midnight. */
+    private final int[][] closes = new int[Tube.COUNT][DAY_TYPES];
+
+    /** Holidays, as days since the epoch, sorted. */
+    private final int[] holidays;
+
+    /** London time. */
+    private final TimeZone zone = TimeZone.getTimeZone("Europe/London");
+
+    /**
+     * @param holidayDates dates given Sunday hours, e.g. bank holidays, as {@code yyyy-MM-dd};
+     *                     any that can't be read are ignored
+     */
+    public ServiceHours(String[] holidayDates) {
+        int[] days = new int[holidayDates.length];
+        int count = 0;
+        for (String date : holidayDates) {
+            int day = parseDate(date);
+            if (day != Integer.MIN_VALUE) {
+                days[count++] = day;
+            }
+        }
+        holidays = Arrays.copyOf(days, count);
+        Arrays.sort(holidays);
+
+        for (int line = 0; line < Tube.COUNT; line++) {
+            Tube tube = Tube.forOrdinal(line);
+            int[] open = opens[line];
+            int[] close = closes[line];
+            for (int day = MONDAY; day <= SATURDAY; day++) {
+                setHours(tube, day, open, close);
+            }
+            setHours(tube, SUNDAY, open, close);
+            open[HOLIDAY] = open[SUNDAY];
+            close[HOLIDAY] = close[SUNDAY];
+            open[CLOSED] = 0;
+            close[CLOSED] = 0;
+        }
+
+        // Night services run on from Friday's and Saturday's first trains to the next day's
+        for (Tube tube : NIGHT_LINES) {
+            int[] open = opens[tube.ordinal()];
+            int[] close = closes[tube.ordinal()];
+            close[FRIDAY] = MINUTES_PER_DAY + open[SATURDAY];
+            close[SATURDAY] = MINUTES_PER_DAY + open[SUNDAY];
+        }
+    }
+
+    private static void setHours(Tube tube, int day, int[] open, int[] close) {
+        switch (tube) {
+            case DLR:
+                open[day] = (day == SUNDAY) ? minutes(7, 0) : minutes(5, 30);
+                close[day] = (day == SUNDAY) ? minutes(23, 30) : minutes(24, 30);
+                break;
+            case OVERGROUND:
+                open[day] = (day == SUNDAY) ? minutes(7, 0) : minutes(5, 45);
+                close[day] = (day == SUNDAY) ? minutes(24, 0) : minutes(24, 45);
+                break;
+            case WLOO_AND_CITY:
+                open[day] = (day == SUNDAY) ? 0 : (day == SATURDAY) ? minutes(8, 0) : minutes(6, 0);
+                close[day] = (day == SUNDAY) ? 0 : minutes(24, 30);
+                break;
+            default:
+                open[day] = (day == SUNDAY) ? minutes(7, 0) : minutes(5, 30);
+                close[day] = (day == SUNDAY) ? minutes(23, 30) : minutes(24, 30);
+                break;
+        }
+    }
+
+    private static int minutes(int hours, int minutes) {
+        return hours * 60 + minutes;
+    }
+
+    /**
+     * @param tube line to check
+     * @param now time to check
+     * @return true if the line is running at that time
+     */
+    public boolean isRunning(Tube tube, long now) {
+        long local = now + zone.getOffset(now);
+        int day = (int) Math.floor((double) local / MS_PER_DAY);
+        int minute = (int) ((local - day * MS_PER_DAY) / MS_PER_MINUTE);
+
+        int line = tube.ordinal();
+        int today = dayType(day);
+        if (minute >= opens[line][today] && minute < closes[line][today]) {
+            return true;
+        }
+        // Still running from yesterday?
+        return minute + MINUTES_PER_DAY < closes[line][dayType(day - 1)];
+    }
+
+    /**
+     * @param favourites lines the user cares about; if none, any line will do
+     * @param now time to check
+     * @return true if any of those lines are running at that time
+     */
+    public boolean isAnyRunning(Favourites favourites, long now) {
+        for (int line = 0; line < Tube.COUNT; line++) {
+            if ((favourites.isEmpty() || favourites.contains(line)) && isRunning(Tube.forOrdinal(line), now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param day days since the epoch
+     * @return the type of day, for looking up hours
+     */
+    private int dayType(int day) {
+        if (isChristmasDay(day)) {
+            return CLOSED;
+        }
+        if (Arrays.binarySearch(holidays, day) >= 0) {
+            return HOLIDAY;
+        }
+        return ((day + EPOCH_DAY_OF_WEEK) % 7 + 7) % 7;
+    }
+
+    /**
+     * @param day days since the epoch
+     * @return true if it's 25 December
+     */
+    private static boolean isChristmasDay(int day) {
+        return day == daysSinceEpoch(yearOf(day), 12, 25);
+    }
+
+    /**
+     * @param day days since the epoch
+     * @return the (proleptic Gregorian) year it falls in
+     */
+    private static int yearOf(int day) {
+        int year = 1970 + (int) Math.floor(day / 365.2425);
+        while (daysSinceEpoch(year, 1, 1) > day) {
+            year--;
+        }
+        while (daysSinceEpoch(year + 1, 1, 1) <= day) {
+            year++;
+        }
+        return year;
+    }
+
+    /**
+     * @return days from 1 January 1970 to the supplied date, which may be negative
+     */
+    private static int daysSinceEpoch(int year, int month, int dayOfMonth) {
+        // Count from 1 March, so the leap day falls at the end of the year
+        int y = (month <= 2) ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + dayOfMonth - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @param date {@code yyyy-MM-dd}
+     * @return days since the epoch, or {@code Integer.MIN_VALUE} if the date can't be read
+     */
+    private static int parseDate(String date) {
+        String[] parts = (date != null) ? date.trim().split("-") : new String[0];
+        if (parts.length != 3) return Integer.MIN_VALUE;
+
+        try {
+            int year = Integer.parseInt(parts[0]);
+            int month = Integer.parseInt(parts[1]);
+            int dayOfMonth = Integer.parseInt(parts[2]);
+            if (month < 1 || month > 12 || dayOfMonth < 1 || dayOfMonth > 31) return Integer.MIN_VALUE;
+            return daysSinceEpoch(year, month, dayOfMonth);
+        } catch (NumberFormatException nfe) {
+            return Integer.MIN_VALUE;
+        }
+    }
+}
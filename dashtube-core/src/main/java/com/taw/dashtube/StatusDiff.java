@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.taw.dashtube.model.StatusSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares two sets of line statuses by line, producing the set of lines that have
+ * appeared, changed status or dropped out of the feed. Two statuses for a line are the
+ * same if their description, active flag and details all match.
+ *
+ * Known lines occupy the same slot in every snapshot, so are compared slot by slot; lines
+ * the {@code Tube} enum doesn't know are matched up by ID.
+ */
+public class StatusDiff {
+
+    private StatusDiff() {
+    }
+
+    /**
+     * Compare the current statuses against the previous ones.
+     *
+     * @param previous previous statuses; may be null if there were none
+     * @param current current statuses; may be null if there are none
+     * @return the differences between the two
+     */
+    public static ChangeSet diff(StatusSnapshot previous, StatusSnapshot current) {
+        StatusSnapshot prev = (previous != null) ? previous : StatusSnapshot.EMPTY;
+        StatusSnapshot curr = (current != null) ? current : StatusSnapshot.EMPTY;
+
+        ChangeSet changes = new ChangeSet();
+
+        for (int slot = 0; slot < StatusSnapshot.UNKNOWN; slot++) {
+            compare(prev, slot, curr, slot, changes);
+        }
+
+        for (int slot = StatusSnapshot.UNKNOWN; slot < curr.getSlotCount(); slot++) {
+            compare(prev, prev.findSlot(curr.getId(slot)), curr, slot, changes);
+        }
+        for (int slot = StatusSnapshot.UNKNOWN; slot < prev.getSlotCount(); slot++) {
+            if (curr.findSlot(prev.getId(slot)) < 0) {
+                changes.cleared.add(prev.getId(slot));
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Compare one line's previous and current status, recording any difference.
+     *
+     * @param prevSlot the line's slot in the previous statuses, or -1 if it wasn't there
+     * @param currSlot the line's slot in the current statuses
+     */
+    private static void compare(StatusSnapshot prev, int prevSlot, StatusSnapshot curr, int currSlot,
+                                ChangeSet changes) {
+        boolean wasPresent = prevSlot >= 0 && prev.isPresent(prevSlot);
+        boolean isPresent = curr.isPresent(currSlot);
+
+        if (isPresent && !wasPresent) {
+            changes.added.add(curr.getId(currSlot));
+        } else if (wasPresent && !isPresent) {
+            changes.cleared.add(prev.getId(prevSlot));
+        } else if (isPresent && !prev.isSameStatus(prevSlot, curr, currSlot)) {
+            changes.changed.add(curr.getId(currSlot));
+        }
+    }
+
+    /**
+     * Differences between two sets of line statuses, as line IDs.
+     */
+    public static class ChangeSet {
+        /** Lines in the current statuses but not the previous ones. */
+        public final List<String> added = new ArrayList<String>();
+        /** Lines whose status has changed. */
+        public final List<String> changed = new ArrayList<String>();
+        /** Lines in the previous statuses but not the current ones. */
+        public final List<String> cleared = new ArrayList<String>();
+
+        /**
+         * @return true if nothing has changed
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && cleared.isEmpty();
+        }
+    }
+}
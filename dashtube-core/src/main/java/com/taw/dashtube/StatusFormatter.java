@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.taw.dashtube.model.StatusSnapshot;
+
+/**
+ * Generates the extension body text - a list of lines with some kind of problem, together
+ * with their severity. The {@code line_status} and {@code more_lines} templates are split
+ * into their literal text and argument slots once, up front, and each body is appended into
+ * the same pre-sized {@code StringBuilder}, so the only allocation per call is the resulting
+ * string.
+ *
+ * Not thread-safe, as the builder is reused.
+ */
+public class StatusFormatter {
+
+    /** Rough upper bound on the length of one formatted line, used to pre-size the builder. */
+    private static final int LINE_CAPACITY = 48;
+
+    /** Template for each line. */
+    private final Template lineStatusTemplate;
+    /** Template for the "x more" message. */
+    private final Template moreLinesTemplate;
+    /** How many lines to output before we truncate output and display the more info msg. */
+    private final int linesLimit;
+
+    /** Reused for building each body. */
+    private final StringBuilder builder;
+
+    /**
+     * @param lineStatusTemplate template for each line; takes the line name and status description
+     * @param moreLinesTemplate template for the truncation message; takes the number of lines omitted
+     * @param linesLimit number of lines to output before truncating, when results aren't filtered
+     */
+    public StatusFormatter(String lineStatusTemplate, String moreLinesTemplate, int linesLimit) {
+        this.lineStatusTemplate = new Template(lineStatusTemplate);
+        this.moreLinesTemplate = new Template(moreLinesTemplate);
+        this.linesLimit = linesLimit;
+        builder = new StringBuilder((linesLimit + 1) * LINE_CAPACITY);
+    }
+
+    /**
+     * Generate string for extension body. Note regarding how many lines to output - if the
+     * user has opted to filter output, they will have at most 5 lines worth of info (the limit
+     * dashclock places on expanded body text). If the number of lines we have is > 5, then
+     * they have not filtered, and so we will truncate output appropriately.
+     *
+     * @param snapshot the line statuses
+     * @param slots slots of the lines to report on, in display order
+     * @param filtered whether the user has set any favourites
+     * @return {@code String} containing body text for the extension
+     */
+    public String format(StatusSnapshot snapshot, int[] slots, boolean filtered) {
+        StringBuilder str = builder;
+        str.setLength(0);
+
+        int size = slots.length;
+        int slot;
+        for (int i = 0; i < size; i ++) {
+            slot = slots[i];
+            if (snapshot.isActive(slot)) {
+                lineStatusTemplate.append(str, snapshot.getName(slot), snapshot.getDescription(slot));
+                if (i != (size - 1)) {
+                    str.append('\n');
+                }
+            }
+            if (!filtered) {
+                if ((i + 1) == linesLimit && size > linesLimit) {
+                    // No filtering by user; output the "x more" msg
+                    moreLinesTemplate.append(str, size - linesLimit);
+                    break;
+                }
+            }
+        }
+
+        return str.toString();
+    }
+
+    /**
+     * A format string split into literal text and argument slots. Supports the subset of
+     * {@code String.format} syntax used by our string resources: {@code %s}, {@code %d}, their
+     * positional {@code %n$} forms, and {@code %%}.
+     */
+    static class Template {
+        /** Literal text; there is always one more literal than there are arguments. */
+        private final String[] literals;
+        /** Zero-based argument index for each slot. */
+        private final int[] args;
+
+        Template(String format) {
+            StringBuilder literal = new StringBuilder();
+            String[] literals = new String[format.length() + 1];
+            int[] args = new int[format.length()];
+            int count = 0;
+            int nextArg = 0;
+
+            int i = 0;
+            while (i < format.length()) {
+                char c = format.charAt(i++);
+                if (c != '%') {
+                    literal.append(c);
+                    continue;
+                }
+                if (i < format.length() && format.charAt(i) == '%') {
+                    literal.append('%');
+                    i++;
+                    continue;
+                }
+
+                // Optional position, then the conversion
+                int position = 0;
+                int start = i;
+                while (i < format.length() && Character.isDigit(format.charAt(i))) {
+                    position = position * 10 + (format.charAt(i++) - '0');
+                }
+                if (i > start) {
+                    if (i >= format.length() || format.charAt(i) != '$') {
+                        throw new IllegalArgumentException("Unsupported format: " + format);
+                    }
+                    i++;
+                } else {
+                    position = ++nextArg;
+                }
+                if (i >= format.length() || (format.charAt(i) != 's' && format.charAt(i) != 'd')) {
+                    throw new IllegalArgumentException("Unsupported format: " + format);
+                }
+                i++;
+
+                literals[count] = literal.toString();
+                args[count++] = position - 1;
+                literal.setLength(0);
+            }
+            literals[count] = literal.toString();
+
+            this.literals = new String[count + 1];
+            System.arraycopy(literals, 0, this.literals, 0, count + 1);
+            this.args = new int[count];
+            System.arraycopy(args, 0, this.args, 0, count);
+        }
+
+        /**
+         * Append the template to the builder, with up to two string arguments.
+         */
+        void append(StringBuilder sb, CharSequence first, CharSequence second) {
+            for (int i = 0; i < args.length; i++) {
+                sb.append(literals[i]);
+                sb.append(args[i] == 0 ? first : second);
+            }
+            sb.append(literals[args.length]);
+        }
+
+        /**
+         * Append the template to the builder, with a single int argument.
+         */
+        void append(StringBuilder sb, int first) {
+            for (int i = 0; i < args.length; i++) {
+                sb.append(literals[i]);
+                sb.append(first);
+            }
+            sb.append(literals[args.length]);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+import com.taw.dashtube.model.StatusCode;
+import com.taw.dashtube.model.StatusSnapshot;
+import com.taw.dashtube.model.Tube;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only log of line status transitions - each time a line's {@link StatusCode}
+ * changes, when and to what - kept in a memory-mapped file, so it can answer "since when"
+ * and "what happened between" questions without reading the whole log into objects.
+ *
+ * The file is a fixed-size header followed by fixed-size records, in time order:
+ * <pre>
+ *   header:  int magic, int version, long base time (ms), int record count, int carried count
+ *   record:  int seconds since the base time, byte Tube ordinal, byte StatusCode ordinal,
+ *            byte flags, byte reserved
+ * </pre>
+ * Only lines the {@link Tube} enum knows are recorded. Appending writes one record per line
+ * whose status has changed, then the new count, so a record is never visible half-written.
+ * As records are in time order, a range scan binary searches for its start; finding when
+ * each line's status began scans back from the end only until every line is found.
+ *
+ * The log holds a fixed number of records. Once it's full, or its oldest records are well
+ * past the retention period, it's compacted into a new file - each line's state at the
+ * start of the retention period followed by everything since - which is then renamed over
+ * the old one, as {@code StatusSnapshotStore} does. The carried-over states keep their
+ * original times, so they still say how long a status has stood; the header counts them,
+ * so the retention check looks past them, and a log is compacted for age about once a day
+ * rather than on every append.
+ *
+ * Writes reach the file as soon as they're made, so survive the process being killed;
+ * they're not forced to storage, so may not survive a power cut. Thread-safe.
+ */
+public class StatusHistory implements Closeable {
+
+    /** Identifies a history file ("DTSH"). */
+    private static final int MAGIC = 0x44545348;
+    /** Format version; bump when the layout changes, and old logs will be discarded. */
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int BASE_TIME_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+    private static final int CARRIED_OFFSET = 20;
+
+    private static final int RECORD_SIZE = 8;
+    private static final int TIME_OFFSET = 0;
+    private static final int LINE_OFFSET = 4;
+    private static final int CODE_OFFSET = 5;
+    private static final int FLAGS_OFFSET = 6;
+
+    /**
+     * Record flag: the line's status was first seen then, rather than seen to change, so it
+     * may have started earlier.
+     */
+    private static final int FLAG_FIRST_SEEN = 1;
+
+    /** Log file. */
+    private final File file;
+    /** Records the log can hold. */
+    private final int capacity;
+    /** How long records are kept, in ms. */
+    private final long retentionMs;
+
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    /** Time that record times are relative to, in ms. */
+    private long baseTime;
+    /** Records in the log. */
+    private int count;
+    /** Leading records carried over from before the retention period by the last compaction. */
+    private int carried;
+    /** Compactions since the log was opened; for tests. */
+    private int compactions = 0;
+
+    /** Each line's latest code, by ordinal; null if it's not in the log. */
+    private final StatusCode[] current = new StatusCode[Tube.COUNT];
+
+    /**
+     * Open the log, creating it if need be. A log that can't be read is started afresh.
+     *
+     * @param file log file
+     * @param capacity records to hold
+     * @param retentionMs how long to keep records for, in ms
+     */
+    public StatusHistory(File file, int capacity, long retentionMs) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.retentionMs = retentionMs;
+        open();
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        boolean valid = raf.length() == size;
+        raf.setLength(size);
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        if (valid && buffer.getInt(MAGIC_OFFSET) == MAGIC && buffer.getInt(VERSION_OFFSET) == VERSION
+                && buffer.getInt(COUNT_OFFSET) >= 0 && buffer.getInt(COUNT_OFFSET) <= capacity) {
+            baseTime = buffer.getLong(BASE_TIME_OFFSET);
+            count = buffer.getInt(COUNT_OFFSET);
+            carried = buffer.getInt(CARRIED_OFFSET);
+            if (carried < 0 || carried > count) {
+                carried = 0;
+            }
+        } else {
+            initialise(buffer, System.currentTimeMillis());
+            baseTime = buffer.getLong(BASE_TIME_OFFSET);
+            count = 0;
+            carried = 0;
+        }
+
+        Arrays.fill(current, null);
+        for (int i = count - 1; i >= 0; i--) {
+            int line = line(i);
+            if (line < current.length && current[line] == null) {
+                current[line] = code(i);
+            }
+        }
+    }
+
+    private static void initialise(ByteBuffer buffer, long baseTime) {
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putLong(BASE_TIME_OFFSET, baseTime);
+        buffer.putInt(COUNT_OFFSET, 0);
+        buffer.putInt(CARRIED_OFFSET, 0);
+    }
+
+    /**
+     * Record the status changes in a new set of statuses. Only the lines in the change set
+     * are looked at, and only those whose status code has actually changed are written.
+     *
+     * @param now time of the statuses
+     * @param snapshot the new statuses
+     * @param changes differences from the previous statuses
+     * @param includeCleared whether lines missing from the new statuses should be recorded as
+     *                       gone; false if they're missing only because they weren't requested
+     */
+    public synchronized void record(long now, StatusSnapshot snapshot, StatusDiff.ChangeSet changes,
+                                    boolean includeCleared) throws IOException {
+        int needed = changes.added.size() + changes.changed.size() + (includeCleared ? changes.cleared.size() : 0);
+        if (needed == 0) return;
+
+        if (count + needed > capacity || isPastRetention(now)) {
+            compact(now, needed);
+        }
+        if (count == 0) {
+            // Times are stored relative to the first record's
+            baseTime = now;
+            buffer.putLong(BASE_TIME_OFFSET, baseTime);
+        }
+
+        int seconds = toSeconds(now);
+        int written = count;
+        written = append(written, seconds, snapshot, changes.added);
+        written = append(written, seconds, snapshot, changes.changed);
+        if (includeCleared) {
+            for (String id : changes.cleared) {
+                Tube tube = Tube.forId(id);
+                if (tube != null && written < capacity) {
+                    written = append(written, seconds, tube.ordinal(), StatusCode.NOT_PRESENT);
+                }
+            }
+        }
+
+        // Publish the records only once they're all written
+        count = written;
+        buffer.putInt(COUNT_OFFSET, count);
+    }
+
+    private int append(int index, int seconds, StatusSnapshot snapshot, List<String> ids) {
+        for (String id : ids) {
+            Tube tube = Tube.forId(id);
+            if (tube == null || index == capacity) continue;
+
+            int slot = tube.ordinal();
+            index = append(index, seconds, slot,
+                    StatusCode.forStatus(snapshot.getDescription(slot), snapshot.isActive(slot)));
+        }
+        return index;
+    }
+
+    private int append(int index, int seconds, int line, StatusCode code) {
+        StatusCode previous = current[line];
+        if (code == previous) return index;
+
+        int position = HEADER_SIZE + index * RECORD_SIZE;
+        buffer.putInt(position + TIME_OFFSET, seconds);
+        buffer.put(position + LINE_OFFSET, (byte) line);
+        buffer.put(position + CODE_OFFSET, (byte) code.ordinal());
+        buffer.put(position + FLAGS_OFFSET, (byte) (previous == null ? FLAG_FIRST_SEEN : 0));
+        current[line] = code;
+        return index + 1;
+    }
+
+    /**
+     * Find when each line's current status began.
+     *
+     * @param since filled in by {@code Tube} ordinal with the time, in ms, the line's current
+     *              status was first seen, or 0 if that isn't known - it's not in the log, or the
+     *              status was already current when the line was first seen
+     */
+    public synchronized void getSince(long[] since) {
+        Arrays.fill(since, 0);
+
+        boolean[] found = new boolean[Tube.COUNT];
+        int remaining = Tube.COUNT;
+        for (int i = count - 1; i >= 0 && remaining > 0; i--) {
+            int line = line(i);
+            if (line >= found.length || found[line]) continue;
+
+            found[line] = true;
+            remaining--;
+            if ((flags(i) & FLAG_FIRST_SEEN) == 0 && line < since.length) {
+                since[line] = time(i);
+            }
+        }
+    }
+
+    /**
+     * Visit the transitions in a time range, oldest first.
+     *
+     * @param from start of the range, in ms, inclusive
+     * @param to end of the range, in ms, exclusive
+     * @param visitor called for each transition
+     */
+    public synchronized void scan(long from, long to, Visitor visitor) {
+        for (int i = firstAtOrAfter(from); i < count; i++) {
+            long time = time(i);
+            if (time >= to) break;
+            int line = line(i);
+            if (line < Tube.COUNT) {
+                visitor.visit(time, Tube.forOrdinal(line), code(i));
+            }
+        }
+    }
+
+    /**
+     * @return index of the first record at or after the supplied time, or {@code count} if none
+     */
+    private int firstAtOrAfter(long time) {
+        long target = (time - baseTime) / 1000;
+        if (target > Integer.MAX_VALUE) return count;
+
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (seconds(mid) < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return true if the oldest records, other than those carried over by the last
+     *         compaction, are at least a day past the retention period, so compacting is
+     *         worthwhile
+     */
+    private boolean isPastRetention(long now) {
+        return count > carried && time(carried) < now - retentionMs - 24 * 60 * 60 * 1000L;
+    }
+
+    /**
+     * Rewrite the log without the records from before the retention period, keeping each
+     * line's state at the start of it; if that doesn't leave room for the records about to
+     * be appended, the oldest half of the rest go too, or all of them if even that isn't
+     * enough, in which case appending drops what still doesn't fit.
+     *
+     * @param now current time
+     * @param needed records about to be appended
+     */
+    private void compact(long now, int needed) throws IOException {
+        long cutoff = now - retentionMs;
+        int first = firstAtOrAfter(cutoff);
+        if (count - first + Tube.COUNT + needed > capacity) {
+            first = Math.max(first, count - Math.max(capacity - Tube.COUNT - needed, 0) / 2);
+        }
+
+        // Each line's latest record from before the cut, in time order, then everything after
+        boolean[] carried = new boolean[Tube.COUNT];
+        int[] kept = new int[Tube.COUNT];
+        int keptCount = 0;
+        for (int i = first - 1; i >= 0; i--) {
+            int line = line(i);
+            if (line < carried.length && !carried[line]) {
+                carried[line] = true;
+                kept[keptCount++] = i;
+            }
+        }
+        Arrays.sort(kept, 0, keptCount);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        int newCount = keptCount + (count - first);
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        try {
+            long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+            out.setLength(size);
+            MappedByteBuffer target = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            initialise(target, baseTime);
+
+            byte[] record = new byte[RECORD_SIZE];
+            int position = HEADER_SIZE;
+            for (int k = 0; k < keptCount; k++) {
+                readRecord(kept[k], record);
+                target.position(position);
+                target.put(record);
+                position += RECORD_SIZE;
+            }
+            ByteBuffer rest = buffer.duplicate();
+            rest.position(HEADER_SIZE + first * RECORD_SIZE);
+            rest.limit(HEADER_SIZE + count * RECORD_SIZE);
+            target.position(position);
+            target.put(rest);
+
+            target.putInt(COUNT_OFFSET, newCount);
+            target.putInt(CARRIED_OFFSET, keptCount);
+            target.force();
+        } finally {
+            out.close();
+        }
+
+        raf.close();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not replace status history");
+        }
+        open();
+        compactions++;
+    }
+
+    private void readRecord(int index, byte[] record) {
+        ByteBuffer source = buffer.duplicate();
+        source.position(HEADER_SIZE + index * RECORD_SIZE);
+        source.get(record);
+    }
+
+    private int toSeconds(long time) {
+        // Should the clock go back, keep the records in order
+        long seconds = Math.max(0, (time - baseTime) / 1000);
+        if (count > 0) {
+            seconds = Math.max(seconds, seconds(count - 1));
+        }
+        return (int) Math.min(seconds, Integer.MAX_VALUE);
+    }
+
+    private int seconds(int index) {
+        return buffer.getInt(HEADER_SIZE + index * RECORD_SIZE + TIME_OFFSET);
+    }
+
+    private long time(int index) {
+        return baseTime + seconds(index) * 1000L;
+    }
+
+    private int line(int index) {
+        return buffer.get(HEADER_SIZE + index * RECORD_SIZE + LINE_OFFSET) & 0xFF;
+    }
+
+    private StatusCode code(int index) {
+        return StatusCode.forOrdinal(buffer.get(HEADER_SIZE + index * RECORD_SIZE + CODE_OFFSET) & 0xFF);
+    }
+
+    private int flags(int index) {
+        return buffer.get(HEADER_SIZE + index * RECORD_SIZE + FLAGS_OFFSET) & 0xFF;
+    }
+
+    /**
+     * @return number of transitions in the log
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return number of times the log has been compacted since it was opened
+     */
+    synchronized int getCompactions() {
+        return compactions;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * Receives the transitions found by {@link #scan(long, long, Visitor)}.
+     */
+    public interface Visitor {
+        void visit(long time, Tube line, StatusCode code);
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where each update cycle spends its time, and what it costs: how long each {@link Stage}
+ * took, the bytes received and the {@link Outcome}, for the most recent cycles. Cycles are
+ * timed with a {@link Cycle} and recorded into a fixed-size ring buffer, so memory use is
+ * constant however long the process runs, and the oldest cycles are overwritten first.
+ *
+ * Recording and reading are lock-free. Each slot of the ring carries a stamp which the
+ * writer makes odd while it's filling the slot and sets to the cycle's sequence number
+ * once done; a reader copies a slot and only keeps the copy if the stamp was the same,
+ * and complete, before and after. The extension records from its worker thread while the
+ * diagnostics screen reads from the UI thread, and neither ever waits for the other.
+ */
+public class UpdateMetrics {
+
+    /** Stages of an update cycle. A stage may run more than once (e.g. retries); times are summed. */
+    public enum Stage {
+        /** Connecting, sending the request and waiting for the response headers. */
+        REQUEST,
+        /** Reading (and decompressing) the response body. */
+        DOWNLOAD,
+        /** Parsing the body into statuses. */
+        PARSE,
+        /** Picking out the lines to report on. */
+        FILTER,
+        /** Generating the text to publish. */
+        FORMAT,
+        /** Handing the data to DashClock. */
+        PUBLISH
+    }
+
+    /** How an update cycle was answered. */
+    public enum Outcome {
+        /** A full response was downloaded. */
+        FRESH,
+        /** The server said the statuses we had were current. */
+        NOT_MODIFIED,
+        /** Answered from the cache without going to the network. */
+        CACHE,
+        /** The fetch failed. */
+        ERROR
+    }
+
+    /** Cycles kept by the process-wide instance. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    /** Fields of a record: start time, outcome, bytes, then each stage's time in ns. */
+    private static final int TIMESTAMP = 0;
+    private static final int OUTCOME = 1;
+    private static final int BYTES = 2;
+    private static final int FIRST_STAGE = 3;
+    private static final int STRIDE = FIRST_STAGE + STAGES.length;
+
+    private static final UpdateMetrics instance = new UpdateMetrics(DEFAULT_CAPACITY);
+
+    /** Capacity - 1; the capacity is a power of two. */
+    private final int mask;
+    /** Records, {@code STRIDE} fields per slot. */
+    private final AtomicLongArray records;
+    /** Per slot, {@code 2 * sequence + 2} once written, or odd while being written. */
+    private final AtomicLongArray stamps;
+    /** Sequence number of the next cycle to record. */
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param capacity cycles to keep; rounded up to a power of two
+     */
+    public UpdateMetrics(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        records = new AtomicLongArray(size * STRIDE);
+        stamps = new AtomicLongArray(size);
+    }
+
+    /**
+     * @return the process-wide instance, shared by the extension and the diagnostics screen
+     */
+    public static UpdateMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Record a finished cycle.
+     *
+     * @param cycle the cycle's timings
+     */
+    public void record(Cycle cycle) {
+        long sequence = next.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        int base = slot * STRIDE;
+
+        // All volatile writes, so none of the fields can be seen before the odd stamp
+        stamps.set(slot, 2 * sequence + 1);
+        records.set(base + TIMESTAMP, cycle.timestamp);
+        records.set(base + OUTCOME, cycle.outcome.ordinal());
+        records.set(base + BYTES, cycle.bytes);
+        for (int i = 0; i < STAGES.length; i++) {
+            records.set(base + FIRST_STAGE + i, cycle.nanos[i]);
+        }
+        stamps.set(slot, 2 * sequence + 2);
+    }
+
+    /**
+     * Summarise the cycles currently held.
+     *
+     * @return totals, and percentiles of each stage's time over the cycles that ran it
+     */
+    public Summary summarise() {
+        final Summary summary = new Summary();
+        forEach(new Visitor() {
+            @Override
+            public void visit(long timestamp, Outcome outcome, long bytes, long[] nanos) {
+                summary.add(outcome, bytes, nanos);
+            }
+        });
+        return summary;
+    }
+
+    /**
+     * Write the cycles currently held as CSV, oldest first: start time, outcome, bytes, then
+     * each stage's time in microseconds.
+     *
+     * @param out where to write
+     */
+    public void writeCsv(final Appendable out) throws IOException {
+        out.append("timestamp,outcome,bytes");
+        for (Stage stage : STAGES) {
+            out.append(',').append(stage.name().toLowerCase(Locale.US)).append("_us");
+        }
+        out.append('\n');
+
+        final IOException[] failure = new IOException[1];
+        forEach(new Visitor() {
+            @Override
+            public void visit(long timestamp, Outcome outcome, long bytes, long[] nanos) {
+                if (failure[0] != null) return;
+                try {
+                    out.append(Long.toString(timestamp)).append(',')
+                            .append(outcome.name()).append(',')
+                            .append(Long.toString(bytes));
+                    for (long n : nanos) {
+                        out.append(',').append(Long.toString(n / 1000));
+                    }
+                    out.append('\n');
+                } catch (IOException ioe) {
+                    failure[0] = ioe;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Visit a consistent copy of each cycle held, oldest first. Cycles being overwritten as
+     * we go are skipped.
+     */
+    private void forEach(Visitor visitor) {
+        long end = next.get();
+        long start = Math.max(0, end - (mask + 1));
+        long[] nanos = new long[STAGES.length];
+
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mask);
+            int base = slot * STRIDE;
+            long stamp = 2 * sequence + 2;
+            if (stamps.get(slot) != stamp) continue;
+
+            long timestamp = records.get(base + TIMESTAMP);
+            int outcome = (int) records.get(base + OUTCOME);
+            long bytes = records.get(base + BYTES);
+            for (int i = 0; i < nanos.length; i++) {
+                nanos[i] = records.get(base + FIRST_STAGE + i);
+            }
+            if (stamps.get(slot) != stamp) continue;
+
+            visitor.visit(timestamp, OUTCOMES[outcome], bytes, nanos);
+        }
+    }
+
+    private interface Visitor {
+        void visit(long timestamp, Outcome outcome, long bytes, long[] nanos);
+    }
+
+    /**
+     * Timings for one update cycle, filled in as it runs and then passed to
+     * {@link #record(Cycle)}. Reusable; not thread-safe.
+     */
+    public static class Cycle {
+        private long timestamp;
+        private Outcome outcome;
+        private long bytes;
+        private final long[] nanos = new long[STAGES.length];
+
+        /**
+         * Start timing a new cycle, clearing the last one.
+         *
+         * @param now current time, in ms since the epoch
+         */
+        public void start(long now) {
+            timestamp = now;
+            outcome = Outcome.CACHE;
+            bytes = 0;
+            for (int i = 0; i < nanos.length; i++) {
+                nanos[i] = 0;
+            }
+        }
+
+        /**
+         * Add the time since {@code startNanos} to a stage.
+         *
+         * @param stage stage that's just finished
+         * @param startNanos {@code System.nanoTime()} when it started
+         * @return the current {@code System.nanoTime()}, for timing the next stage from
+         */
+        public long end(Stage stage, long startNanos) {
+            long now = System.nanoTime();
+            nanos[stage.ordinal()] += now - startNanos;
+            return now;
+        }
+
+        public void setOutcome(Outcome outcome) {
+            this.outcome = outcome;
+        }
+
+        /**
+         * @param bytes bytes received, added to any received already this cycle
+         */
+        public void addBytes(long bytes) {
+            this.bytes += bytes;
+        }
+    }
+
+    /**
+     * Totals and per-stage percentiles over the cycles held.
+     */
+    public static class Summary {
+        private final int[] outcomes = new int[OUTCOMES.length];
+        private final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+        private int cycles;
+        private long bytes;
+
+        private Summary() {
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new LatencyHistogram();
+            }
+        }
+
+        private void add(Outcome outcome, long cycleBytes, long[] nanos) {
+            cycles++;
+            outcomes[outcome.ordinal()]++;
+            bytes += cycleBytes;
+            for (int i = 0; i < nanos.length; i++) {
+                // Stages a cycle didn't run (e.g. parsing, for a 304) would only drag the percentiles down
+                if (nanos[i] > 0) {
+                    stages[i].record(nanos[i]);
+                }
+            }
+        }
+
+        public int getCycles() {
+            return cycles;
+        }
+
+        public int getCount(Outcome outcome) {
+            return outcomes[outcome.ordinal()];
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return histogram of the stage's times, over the cycles that ran it
+         */
+        public LatencyHistogram getHistogram(Stage stage) {
+            return stages[stage.ordinal()];
+        }
+
+        /**
+         * Write the summary as a plain text table.
+         *
+         * @param out where to write
+         */
+        public void writeReport(Appendable out) throws IOException {
+            out.append(String.format(Locale.US, "%d cycles, %d bytes received%n", cycles, bytes));
+            for (Outcome outcome : OUTCOMES) {
+                out.append(String.format(Locale.US, "  %-13s %5d%n", outcome.name(), getCount(outcome)));
+            }
+            out.append(String.format(Locale.US, "%n%-9s %5s %9s %9s %9s%n", "stage", "n", "p50 ms", "p90 ms", "p99 ms"));
+            for (Stage stage : STAGES) {
+                LatencyHistogram histogram = getHistogram(stage);
+                out.append(String.format(Locale.US, "%-9s %5d %9.1f %9.1f %9.1f%n",
+                        stage.name().toLowerCase(Locale.US), histogram.getCount(),
+                        histogram.getPercentile(50) / 1e6,
+                        histogram.getPercentile(90) / 1e6,
+                        histogram.getPercentile(99) / 1e6));
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Decides how often the status feed is worth fetching. DashClock drives updates itself
+ * (periodically, and on screen-on if we ask for it), so rather than setting its own alarms
+ * the scheduler works out a minimum interval between fetches, and the extension answers
+ * any periodic or screen-on update that arrives sooner than that from its cache.
+ *
+ * The interval is chosen from whether any of the user's lines are disrupted, how recently
+ * statuses last changed, and whether we're in the peak hours when things change most.
+ * Screen-on updates are only requested while they're likely to be useful - during
+ * disruption or the peaks - as they're otherwise just extra wake-ups.
+ */
+public class UpdateScheduler {
+
+    /** Interval while disrupted and statuses have recently changed. */
+    private static final long DISRUPTED_CHANGING_INTERVAL_MS = 5 * 60 * 1000;
+    /** Interval while disrupted but statuses are settled. */
+    private static final long DISRUPTED_INTERVAL_MS = 10 * 60 * 1000;
+    /** Interval during peak hours with good service. */
+    private static final long PEAK_INTERVAL_MS = 15 * 60 * 1000;
+    /** Interval outside peak hours with good service. */
+    private static final long OFF_PEAK_INTERVAL_MS = 30 * 60 * 1000;
+    /** Interval outside peak hours once statuses haven't changed for a while. */
+    private static final long QUIET_INTERVAL_MS = 60 * 60 * 1000;
+
+    /**
+     * Allowance for DashClock's own timing; its periodic updates don't land exactly on the
+     * minute, and missing one by seconds would otherwise push the next fetch a whole period out.
+     */
+    private static final long SLACK_MS = 60 * 1000;
+
+    /** How long after a change statuses count as 'recently changed'. */
+    private static final long RECENT_CHANGE_MS = 30 * 60 * 1000;
+    /** How long without a change before an off-peak period counts as quiet. */
+    private static final long QUIET_AFTER_MS = 2 * 60 * 60 * 1000;
+
+    /** Weekday peak periods, in minutes since midnight (London time); start inclusive, end exclusive. */
+    private static final int[][] PEAKS = {
+            {6 * 60 + 30, 9 * 60 + 30},
+            {16 * 60, 19 * 60}
+    };
+
+    /** Reused for working out the time of day. */
+    private final Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("Europe/London"));
+
+    /** When the feed was last fetched successfully; 0 if not yet. */
+    private long lastFetch = 0;
+    /** When statuses last changed; 0 if not yet seen. */
+    private long lastChange = 0;
+    /** Whether any of the user's lines were disrupted at the last fetch. */
+    private boolean disrupted = false;
+    /** What to multiply intervals by, to save data; see {@link DataBudget}. */
+    private int intervalFactor = 1;
+
+    /**
+     * Record the outcome of a successful fetch.
+     *
+     * @param now time of the fetch
+     * @param disrupted whether any of the user's lines are disrupted
+     * @param changed whether any statuses changed since the previous fetch
+     */
+    public void recordFetch(long now, boolean disrupted, boolean changed) {
+        this.lastFetch = now;
+        this.disrupted = disrupted;
+        if (changed) {
+            lastChange = now;
+        }
+    }
+
+    /**
+     * Stretch the intervals between fetches, e.g. when nearing a data cap. Screen-on updates
+     * aren't wanted while they're stretched.
+     *
+     * @param factor what to multiply intervals by; 1 for the usual intervals
+     */
+    public void setIntervalFactor(int factor) {
+        this.intervalFactor = Math.max(factor, 1);
+    }
+
+    /**
+     * Check whether an update should go to the network, or be answered from the cache.
+     * Anything the user or DashClock explicitly asked for is always fetched; background
+     * (periodic and screen-on) updates only once the interval is up.
+     *
+     * @param background whether the update is a background one
+     * @param now current time
+     * @return true if the feed should be fetched
+     */
+    public boolean shouldFetch(boolean background, long now) {
+        return !background || lastFetch == 0 || now - lastFetch >= getInterval(now) - SLACK_MS;
+    }
+
+    /**
+     * @param now current time
+     * @return true if screen-on updates are currently worth having
+     */
+    public boolean wantsScreenOnUpdates(long now) {
+        return intervalFactor == 1 && (disrupted || isPeak(now));
+    }
+
+    /**
+     * Work out the minimum time between fetches at the supplied time.
+     *
+     * @param now current time
+     * @return interval in ms
+     */
+    public long getInterval(long now) {
+        return getBaseInterval(now) * intervalFactor;
+    }
+
+    /**
+     * @return the interval at the supplied time, before any stretching
+     */
+    private long getBaseInterval(long now) {
+        boolean recentlyChanged = lastChange != 0 && now - lastChange < RECENT_CHANGE_MS;
+
+        if (disrupted) {
+            return recentlyChanged ? DISRUPTED_CHANGING_INTERVAL_MS : DISRUPTED_INTERVAL_MS;
+        }
+        if (isPeak(now)) {
+            return PEAK_INTERVAL_MS;
+        }
+        if (lastChange != 0 && now - lastChange >= QUIET_AFTER_MS) {
+            return QUIET_INTERVAL_MS;
+        }
+        return OFF_PEAK_INTERVAL_MS;
+    }
+
+    /**
+     * @return true if the supplied time falls in a weekday peak period
+     */
+    private boolean isPeak(long now) {
+        calendar.setTimeInMillis(now);
+        int day = calendar.get(Calendar.DAY_OF_WEEK);
+        if (day == Calendar.SATURDAY || day == Calendar.SUNDAY) {
+            return false;
+        }
+
+        int minutes = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        for (int[] peak : PEAKS) {
+            if (minutes >= peak[0] && minutes < peak[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube.model;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The user's favourite lines, as a bitmask over {@link Tube} ordinals - which are also the
+ * slots of known lines in a {@link StatusSnapshot}, so checking a line is a shift and a mask.
+ * Lines the enum doesn't know can't be favourites.
+ *
+ * Immutable.
+ */
+public final class Favourites {
+
+    /** No favourites set. */
+    public static final Favourites NONE = new Favourites(0L);
+
+    static {
+        if (Tube.COUNT > Long.SIZE) {
+            throw new AssertionError("Too many lines for a long bitmask");
+        }
+    }
+
+    /** Bit {@code n} is set if {@code Tube.forOrdinal(n)} is a favourite. */
+    private final long mask;
+
+    private Favourites(long mask) {
+        this.mask = mask;
+    }
+
+    /**
+     * @param ids IDs of the favourite lines, as stored in preferences; may be null. Unknown IDs are ignored.
+     * @return the corresponding favourites
+     */
+    public static Favourites fromIds(Set<String> ids) {
+        if (ids == null || ids.isEmpty()) return NONE;
+
+        long mask = 0L;
+        for (String id : ids) {
+            Tube tube = Tube.forId(id);
+            if (tube != null) {
+                mask |= 1L << tube.ordinal();
+            }
+        }
+        return (mask == 0L) ? NONE : new Favourites(mask);
+    }
+
+    /**
+     * @return true if no favourites are set, i.e. the user wants to see all lines
+     */
+    public boolean isEmpty() {
+        return mask == 0L;
+    }
+
+    /**
+     * @param slot a {@code StatusSnapshot} slot, or {@code Tube} ordinal
+     * @return true if the line in that slot is a favourite
+     */
+    public boolean contains(int slot) {
+        return slot < Tube.COUNT && (mask & (1L << slot)) != 0L;
+    }
+
+    /**
+     * @return number of favourites
+     */
+    public int size() {
+        return Long.bitCount(mask);
+    }
+
+    /**
+     * @return IDs of the favourite lines, as stored in preferences
+     */
+    public Set<String> toIds() {
+        Set<String> ids = new HashSet<String>();
+        for (int line = 0; line < Tube.COUNT; line++) {
+            if (contains(line)) {
+                ids.add(Tube.forOrdinal(line).getId());
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Favourites && ((Favourites) o).mask == mask;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mask ^ (mask >>> 32));
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Planned engineering works - closures and the like, with the period each is in effect -
+ * indexed by line. Works are held in parallel arrays grouped by {@link Tube} ordinal and
+ * ordered by start time within each line, with an offset table giving where each line's
+ * works begin, so looking up a line's works is an array index rather than a search.
+ *
+ * Immutable once built; build with a {@link Builder}.
+ */
+public final class PlannedWorks {
+
+    /** No planned works. */
+    public static final PlannedWorks EMPTY = new Builder().build();
+
+    /** Statuses that planned works account for, when they're in effect. */
+    private static final StatusCode[] PLANNED_STATUSES = {
+            StatusCode.PLANNED_CLOSURE, StatusCode.PART_CLOSURE, StatusCode.SERVICE_CLOSED
+    };
+
+    /** Index of each line's first work, by ordinal; the last entry is the number of works. */
+    private final int[] lineStart;
+    private final byte[] lines;
+    private final long[] from;
+    private final long[] to;
+    private final String[] descriptions;
+    private final String[] details;
+
+    private PlannedWorks(List<Work> works) {
+        int count = works.size();
+        lineStart = new int[Tube.COUNT + 1];
+        lines = new byte[count];
+        from = new long[count];
+        to = new long[count];
+        descriptions = new String[count];
+        details = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            Work work = works.get(i);
+            lines[i] = (byte) work.line;
+            from[i] = work.from;
+            to[i] = work.to;
+            descriptions[i] = work.description;
+            details[i] = work.details;
+            lineStart[work.line + 1]++;
+        }
+        for (int line = 0; line < Tube.COUNT; line++) {
+            lineStart[line + 1] += lineStart[line];
+        }
+    }
+
+    /**
+     * @return total number of works
+     */
+    public int size() {
+        return from.length;
+    }
+
+    public Tube getLine(int index) {
+        return Tube.forOrdinal(lines[index]);
+    }
+
+    /**
+     * @return when the work starts, in ms since the epoch
+     */
+    public long getFrom(int index) {
+        return from[index];
+    }
+
+    /**
+     * @return when the work ends, in ms since the epoch
+     */
+    public long getTo(int index) {
+        return to[index];
+    }
+
+    public String getDescription(int index) {
+        return descriptions[index];
+    }
+
+    public String getDetails(int index) {
+        return details[index];
+    }
+
+    /**
+     * @param slot a {@code StatusSnapshot} slot, or {@code Tube} ordinal
+     * @param now time to check
+     * @return true if planned works on that line are in effect at that time
+     */
+    public boolean isInEffect(int slot, long now) {
+        if (slot >= Tube.COUNT) return false;
+
+        for (int i = lineStart[slot]; i < lineStart[slot + 1] && from[i] <= now; i++) {
+            if (to[i] > now) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a line's live status is down to planned works, rather than a disruption
+     * that needs watching: it's a closure, and works on the line are in effect.
+     *
+     * @param snapshot live statuses
+     * @param slot the line's slot
+     * @param now time of the statuses
+     * @return true if the status is explained by planned works
+     */
+    public boolean explains(StatusSnapshot snapshot, int slot, long now) {
+        if (!isInEffect(slot, now)) return false;
+
+        StatusCode code = StatusCode.forStatus(snapshot.getDescription(slot), snapshot.isActive(slot));
+        for (StatusCode planned : PLANNED_STATUSES) {
+            if (code == planned) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the works in a period on the lines of interest.
+     *
+     * @param favourites lines of interest; if none, all lines
+     * @param start start of the period
+     * @param end end of the period
+     * @return indices of the works overlapping the period, by start time
+     */
+    public int[] find(Favourites favourites, long start, long end) {
+        int[] found = new int[from.length];
+        int count = 0;
+        for (int line = 0; line < Tube.COUNT; line++) {
+            if (!favourites.isEmpty() && !favourites.contains(line)) continue;
+
+            for (int i = lineStart[line]; i < lineStart[line + 1] && from[i] < end; i++) {
+                if (to[i] > start) {
+                    found[count++] = i;
+                }
+            }
+        }
+
+        // Lines' works are each in order already; a simple insertion sort merges them
+        for (int i = 1; i < count; i++) {
+            int index = found[i];
+            int j = i - 1;
+            while (j >= 0 && from[found[j]] > from[index]) {
+                found[j + 1] = found[j];
+                j--;
+            }
+            found[j + 1] = index;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Accumulates works, in any order.
+     */
+    public static class Builder {
+        private final List<Work> works = new ArrayList<Work>();
+
+        /**
+         * @param tube line affected
+         * @param from when the work starts, in ms since the epoch
+         * @param to when it ends; works that end before they start are ignored
+         * @param description status while in effect, e.g. "Part Closure"
+         * @param details what's affected and why
+         * @return this builder
+         */
+        public Builder add(Tube tube, long from, long to, String description, String details) {
+            if (to > from) {
+                works.add(new Work(tube.ordinal(), from, to, description, details));
+            }
+            return this;
+        }
+
+        public PlannedWorks build() {
+            List<Work> sorted = new ArrayList<Work>(works);
+            Collections.sort(sorted, new Comparator<Work>() {
+                @Override
+                public int compare(Work lhs, Work rhs) {
+                    if (lhs.line != rhs.line) {
+                        return lhs.line - rhs.line;
+                    }
+                    return (lhs.from < rhs.from) ? -1 : (lhs.from > rhs.from) ? 1 : 0;
+                }
+            });
+            return new PlannedWorks(sorted);
+        }
+    }
+
+    private static class Work {
+        final int line;
+        final long from;
+        final long to;
+        final String description;
+        final String details;
+
+        Work(int line, long from, long to, String description, String details) {
+            this.line = line;
+            this.from = from;
+            this.to = to;
+            this.description = description;
+            this.details = details;
+        }
+    }
+}
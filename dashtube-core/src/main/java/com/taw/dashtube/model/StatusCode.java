@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.taw.dashtube.model;
+
+/**
+ * The statuses TfL report a line as having, as a fixed set of codes small enough to store
+ * in a byte - see {@link com.taw.dashtube.StatusHistory}. Both feeds describe statuses with
+ * the same vocabulary; descriptions we don't recognise are kept as {@link #OTHER_DISRUPTION}
+ * or {@link #OTHER}, depending on whether the status is active.
+ *
+ * The order is part of the history file format: only ever add codes at the end.
+ */
+public enum StatusCode {
+    /** The line isn't in the feed. */
+    NOT_PRESENT(null),
+    GOOD_SERVICE("Good Service"),
+    MINOR_DELAYS("Minor Delays"),
+    SEVERE_DELAYS("Severe Delays"),
+    REDUCED_SERVICE("Reduced Service"),
+    PART_SUSPENDED("Part Suspended"),
+    SUSPENDED("Suspended"),
+    PART_CLOSURE("Part Closure"),
+    PLANNED_CLOSURE("Planned Closure"),
+    SERVICE_CLOSED("Service Closed"),
+    SPECIAL_SERVICE("Special Service"),
+    BUS_SERVICE("Bus Service"),
+    CHANGE_OF_FREQUENCY("Change of frequency"),
+    DIVERTED("Diverted"),
+    NOT_RUNNING("Not Running"),
+    ISSUES_REPORTED("Issues Reported"),
+    NO_ISSUES("No Issues"),
+    INFORMATION("Information"),
+    /** An active status with a description we don't recognise. */
+    OTHER_DISRUPTION(null),
+    /** An inactive status with a description we don't recognise. */
+    OTHER(null);
+
+    /** Codes by ordinal, for the lookups. */
+    private static final StatusCode[] VALUES = values();
+
+    /** Status description, as in the feeds. */
+    private final String description;
+
+    StatusCode(String description) {
+        this.description = description;
+    }
+
+    /**
+     * Find the code for a status. There are only a handful, so this is a straight scan.
+     *
+     * @param description status description, as in the feed
+     * @param isActive whether the status is active, i.e. a disruption
+     * @return the matching code
+     */
+    public static StatusCode forStatus(String description, boolean isActive) {
+        if (description != null) {
+            String trimmed = description.trim();
+            for (StatusCode code : VALUES) {
+                if (code.description != null && code.description.equalsIgnoreCase(trimmed)) {
+                    return code;
+                }
+            }
+        }
+        return isActive ? OTHER_DISRUPTION : OTHER;
+    }
+
+    /**
+     * @param ordinal a code's ordinal, as stored
+     * @return the code, or {@link #OTHER} if the ordinal is from a later release
+     */
+    public static StatusCode forOrdinal(int ordinal) {
+        return (ordinal >= 0 && ordinal < VALUES.length) ? VALUES[ordinal] : OTHER;
+    }
+}
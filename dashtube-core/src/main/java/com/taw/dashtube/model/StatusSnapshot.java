@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The statuses from one feed document, held as parallel arrays indexed by slot. Slot
+ * {@code n} for {@code n < UNKNOWN} is the line {@code Tube.forOrdinal(n)}; lines the
+ * {@link Tube} enum doesn't know about (e.g. a line added to the feed after this release)
+ * get the slots from {@link #UNKNOWN} upwards, and carry their own ID and name.
+ *
+ * The lines present are also listed in display order - by name, with any unknown lines
+ * after the known ones in feed order - which is worked out once when the snapshot is built,
+ * so callers iterate {@code getSlot(0) .. getSlot(size() - 1)} without sorting or lookups.
+ *
+ * Status descriptions and details are interned through a process-wide
+ * {@link StringDictionary} as the snapshot is built, so snapshots share one copy of each
+ * string, however many polls' worth are held, and {@link #isSameStatus} compares codes
+ * rather than strings.
+ *
+ * Immutable once built; build with a {@link Builder}.
+ */
+public final class StatusSnapshot {
+
+    /** First slot used for lines the {@code Tube} enum doesn't know. */
+    public static final int UNKNOWN = Tube.COUNT;
+
+    /** Known slots, ordered by line name; worked out when {@code Tube} is generated. */
+    private static final int[] NAME_ORDER = Tube.DISPLAY_ORDER;
+
+    /**
+     * Most distinct descriptions and details held at once; many times what a day of feeds
+     * uses, but a bound should a feed put something unique in every status.
+     */
+    private static final int DICTIONARY_CAPACITY = 1024;
+
+    /** Dictionary the status strings of all snapshots are interned in. */
+    private static final StringDictionary STRINGS = new StringDictionary(DICTIONARY_CAPACITY);
+
+    /** A snapshot with no lines, as for a feed with no line statuses. */
+    public static final StatusSnapshot EMPTY = new Builder().build();
+
+    /** Whether each slot is in the feed. */
+    private final boolean[] present;
+    /** Status description for each slot. */
+    private final String[] descriptions;
+    /** Dictionary code of each slot's description. */
+    private final int[] descriptionCodes;
+    /** Whether each slot's status is active, i.e. a disruption. */
+    private final boolean[] active;
+    /** Status details for each slot. */
+    private final String[] details;
+    /** Dictionary code of each slot's details. */
+    private final int[] detailsCodes;
+    /** IDs of the unknown lines, from slot {@code UNKNOWN}. */
+    private final String[] unknownIds;
+    /** Names of the unknown lines, from slot {@code UNKNOWN}. */
+    private final String[] unknownNames;
+    /** Slots present, in display order. */
+    private final int[] displayOrder;
+
+    private StatusSnapshot(Builder builder) {
+        int unknownCount = builder.unknownIds.size();
+        int slots = UNKNOWN + unknownCount;
+
+        present = Arrays.copyOf(builder.present, slots);
+        descriptions = Arrays.copyOf(builder.descriptions, slots);
+        descriptionCodes = Arrays.copyOf(builder.descriptionCodes, slots);
+        active = Arrays.copyOf(builder.active, slots);
+        details = Arrays.copyOf(builder.details, slots);
+        detailsCodes = Arrays.copyOf(builder.detailsCodes, slots);
+        unknownIds = builder.unknownIds.toArray(new String[unknownCount]);
+        unknownNames = builder.unknownNames.toArray(new String[unknownCount]);
+        for (int i = 0; i < unknownCount; i++) {
+            present[UNKNOWN + i] = true;
+            descriptions[UNKNOWN + i] = builder.unknownDescriptions[i];
+            descriptionCodes[UNKNOWN + i] = builder.unknownDescriptionCodes[i];
+            active[UNKNOWN + i] = builder.unknownActive[i];
+            details[UNKNOWN + i] = builder.unknownDetails[i];
+            detailsCodes[UNKNOWN + i] = builder.unknownDetailsCodes[i];
+        }
+
+        int count = 0;
+        int[] order = new int[slots];
+        for (int slot : NAME_ORDER) {
+            if (present[slot]) {
+                order[count++] = slot;
+            }
+        }
+        for (int slot = UNKNOWN; slot < slots; slot++) {
+            order[count++] = slot;
+        }
+        displayOrder = Arrays.copyOf(order, count);
+    }
+
+    /**
+     * @return number of lines in the snapshot
+     */
+    public int size() {
+        return displayOrder.length;
+    }
+
+    /**
+     * @return number of slots, known and unknown; slots below this may or may not be present
+     */
+    public int getSlotCount() {
+        return present.length;
+    }
+
+    /**
+     * @param position position in display order, from 0 to {@code size() - 1}
+     * @return the slot at that position
+     */
+    public int getSlot(int position) {
+        return displayOrder[position];
+    }
+
+    /**
+     * @param slot slot to check; any value from 0 to {@code getSlotCount() - 1}
+     * @return true if the line in that slot is in the feed
+     */
+    public boolean isPresent(int slot) {
+        return present[slot];
+    }
+
+    /**
+     * @return the line in the supplied slot, or null if it's one the enum doesn't know
+     */
+    public Tube getTube(int slot) {
+        return (slot < UNKNOWN) ? Tube.forOrdinal(slot) : null;
+    }
+
+    /**
+     * @return the feed's ID for the line in the supplied slot
+     */
+    public String getId(int slot) {
+        return (slot < UNKNOWN) ? Tube.forOrdinal(slot).getId() : unknownIds[slot - UNKNOWN];
+    }
+
+    /**
+     * @return display name for the line in the supplied slot
+     */
+    public String getName(int slot) {
+        return (slot < UNKNOWN) ? Tube.forOrdinal(slot).getName() : unknownNames[slot - UNKNOWN];
+    }
+
+    public String getDescription(int slot) {
+        return descriptions[slot];
+    }
+
+    public boolean isActive(int slot) {
+        return active[slot];
+    }
+
+    public String getDetails(int slot) {
+        return details[slot];
+    }
+
+    /**
+     * Compare a line's status with another's: the same if the description, active flag and
+     * details all match. Interned strings are compared by code; only strings that didn't
+     * fit in the dictionary are compared by value.
+     *
+     * @param slot slot of the line in this snapshot
+     * @param other snapshot to compare with; may be this one
+     * @param otherSlot slot of the line in the other snapshot
+     * @return true if the statuses are the same
+     */
+    public boolean isSameStatus(int slot, StatusSnapshot other, int otherSlot) {
+        return active[slot] == other.active[otherSlot]
+                && isSameString(descriptionCodes[slot], descriptions[slot],
+                        other.descriptionCodes[otherSlot], other.descriptions[otherSlot])
+                && isSameString(detailsCodes[slot], details[slot],
+                        other.detailsCodes[otherSlot], other.details[otherSlot]);
+    }
+
+    /**
+     * @return true if two strings with the supplied codes are equal
+     */
+    private static boolean isSameString(int lhsCode, String lhs, int rhsCode, String rhs) {
+        if (lhsCode != StringDictionary.NONE && rhsCode != StringDictionary.NONE) {
+            return lhsCode == rhsCode;
+        }
+        return lhs == null ? rhs == null : lhs.equals(rhs);
+    }
+
+    /**
+     * Find the slot of a line by ID.
+     *
+     * @param id line ID, as used by the feed
+     * @return the line's slot, or -1 if it isn't in the snapshot
+     */
+    public int findSlot(String id) {
+        Tube tube = Tube.forId(id);
+        if (tube != null) {
+            return present[tube.ordinal()] ? tube.ordinal() : -1;
+        }
+        for (int i = 0; i < unknownIds.length; i++) {
+            if (unknownIds[i].equals(id)) {
+                return UNKNOWN + i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Accumulates line statuses, in any order, into a snapshot.
+     */
+    public static class Builder {
+        private final boolean[] present = new boolean[UNKNOWN];
+        private final String[] descriptions = new String[UNKNOWN];
+        private final int[] descriptionCodes = new int[UNKNOWN];
+        private final boolean[] active = new boolean[UNKNOWN];
+        private final String[] details = new String[UNKNOWN];
+        private final int[] detailsCodes = new int[UNKNOWN];
+        private final ArrayList<String> unknownIds = new ArrayList<String>(0);
+        private final ArrayList<String> unknownNames = new ArrayList<String>(0);
+        private String[] unknownDescriptions = new String[0];
+        private int[] unknownDescriptionCodes = new int[0];
+        private boolean[] unknownActive = new boolean[0];
+        private String[] unknownDetails = new String[0];
+        private int[] unknownDetailsCodes = new int[0];
+
+        /**
+         * Add a line's status. Should the feed list a known line twice, the last one wins.
+         *
+         * @param id the line's ID; lines without one are ignored
+         * @param name the line's name, used if the {@code Tube} enum doesn't know it
+         * @param description status description
+         * @param isActive whether the status is active, i.e. a disruption
+         * @param statusDetails status details
+         * @return this builder
+         */
+        public Builder add(String id, String name, String description, boolean isActive, String statusDetails) {
+            if (id == null) return this;
+
+            Tube tube = Tube.forId(id);
+            if (tube != null) {
+                int slot = tube.ordinal();
+                present[slot] = true;
+                descriptionCodes[slot] = STRINGS.intern(description, descriptions, slot);
+                active[slot] = isActive;
+                detailsCodes[slot] = STRINGS.intern(statusDetails, details, slot);
+            } else {
+                int i = unknownIds.size();
+                unknownIds.add(id);
+                unknownNames.add(name != null ? name : id);
+                if (i == unknownDetails.length) {
+                    int capacity = Math.max(4, i * 2);
+                    unknownDescriptions = Arrays.copyOf(unknownDescriptions, capacity);
+                    unknownDescriptionCodes = Arrays.copyOf(unknownDescriptionCodes, capacity);
+                    unknownActive = Arrays.copyOf(unknownActive, capacity);
+                    unknownDetails = Arrays.copyOf(unknownDetails, capacity);
+                    unknownDetailsCodes = Arrays.copyOf(unknownDetailsCodes, capacity);
+                }
+                unknownDescriptionCodes[i] = STRINGS.intern(description, unknownDescriptions, i);
+                unknownActive[i] = isActive;
+                unknownDetailsCodes[i] = STRINGS.intern(statusDetails, unknownDetails, i);
+            }
+            return this;
+        }
+
+        public StatusSnapshot build() {
+            return new StatusSnapshot(this);
+        }
+    }
+}
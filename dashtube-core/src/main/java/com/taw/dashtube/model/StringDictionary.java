@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube.model;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Bounded dictionary of strings that recur from one feed to the next - status descriptions
+ * such as "Good Service", and the details texts, which are often word for word the same
+ * across lines and polls. Each distinct string gets a small integer code and a canonical
+ * instance, so snapshots share one copy of each string and compare them by code.
+ *
+ * Entries are held weakly: once no snapshot refers to a string it can be collected, and its
+ * code is reused. A code therefore only identifies a string while something holds the
+ * canonical instance, which snapshots always do. Once {@code capacity} strings are live,
+ * further ones aren't interned and get the code {@link #NONE}, which compares by value.
+ *
+ * Thread-safe; snapshots can be built on any thread.
+ */
+public final class StringDictionary {
+
+    /** Code of the null string. */
+    public static final int NULL = 0;
+    /** Code of a string that wasn't interned because the dictionary is full. */
+    public static final int NONE = -1;
+
+    /** Cleared entries, to be removed and their codes reused. */
+    private final ReferenceQueue<String> queue = new ReferenceQueue<String>();
+    /** Hash buckets; the length is a power of two. */
+    private final Entry[] table;
+    /** Entries by code; code 0 is {@link #NULL}, so is never used. */
+    private final Entry[] byCode;
+    /** Codes freed by cleared entries, for reuse. */
+    private final int[] free;
+    /** Number of codes in {@code free}. */
+    private int freeCount = 0;
+    /** Next code never yet used. */
+    private int nextCode = 1;
+
+    /**
+     * @param capacity most strings held at once
+     */
+    public StringDictionary(int capacity) {
+        int buckets = Integer.highestOneBit(Math.max(capacity, 1));
+        if (buckets < capacity) {
+            buckets <<= 1;
+        }
+        table = new Entry[buckets];
+        byCode = new Entry[capacity + 1];
+        free = new int[capacity];
+    }
+
+    /**
+     * Intern a string: look up its canonical instance and code, adding it if it's new.
+     * The canonical instance is written to the supplied array, where it holds the entry
+     * for as long as the array does; it's returned that way, rather than by a separate
+     * lookup, so it can't be collected in between.
+     *
+     * @param value string to intern; may be null
+     * @param out array to store the canonical instance in (or {@code value} itself, if
+     *            it wasn't interned)
+     * @param index where in {@code out} to store it
+     * @return the string's code; {@link #NULL} for null, {@link #NONE} if the dictionary is full
+     */
+    public synchronized int intern(String value, String[] out, int index) {
+        if (value == null) {
+            out[index] = null;
+            return NULL;
+        }
+        expunge();
+
+        int hash = value.hashCode();
+        int bucket = hash & (table.length - 1);
+        for (Entry e = table[bucket]; e != null; e = e.next) {
+            if (e.hash == hash) {
+                String s = e.get();
+                if (s != null && s.equals(value)) {
+                    out[index] = s;
+                    return e.code;
+                }
+            }
+        }
+
+        int code;
+        if (freeCount > 0) {
+            code = free[--freeCount];
+        } else if (nextCode < byCode.length) {
+            code = nextCode++;
+        } else {
+            out[index] = value;
+            return NONE;
+        }
+
+        Entry e = new Entry(value, queue, hash, code, table[bucket]);
+        table[bucket] = e;
+        byCode[code] = e;
+        out[index] = value;
+        return code;
+    }
+
+    /**
+     * @param code a code returned by {@link #intern}, whose string is still held
+     * @return the string with that code
+     */
+    public synchronized String get(int code) {
+        if (code <= NULL) return null;
+        Entry e = byCode[code];
+        return (e != null) ? e.get() : null;
+    }
+
+    /**
+     * @return number of strings currently held, including any collected but not yet removed
+     */
+    public synchronized int size() {
+        expunge();
+        return nextCode - 1 - freeCount;
+    }
+
+    /**
+     * Remove entries whose strings have been collected, freeing their codes.
+     */
+    private void expunge() {
+        Entry cleared;
+        while ((cleared = (Entry) queue.poll()) != null) {
+            int bucket = cleared.hash & (table.length - 1);
+            Entry prev = null;
+            for (Entry e = table[bucket]; e != null; prev = e, e = e.next) {
+                if (e == cleared) {
+                    if (prev == null) {
+                        table[bucket] = e.next;
+                    } else {
+                        prev.next = e.next;
+                    }
+                    byCode[e.code] = null;
+                    free[freeCount++] = e.code;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * A string's entry, chained within its hash bucket.
+     */
+    private static final class Entry extends WeakReference<String> {
+        final int hash;
+        final int code;
+        Entry next;
+
+        Entry(String value, ReferenceQueue<String> queue, int hash, int code, Entry next) {
+            super(value, queue);
+            this.hash = hash;
+            this.code = code;
+            this.next = next;
+        }
+    }
+}
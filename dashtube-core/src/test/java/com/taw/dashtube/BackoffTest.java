@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BackoffTest {
+
+    @Test
+    public void delaysStayWithinTheDoublingBound() {
+        Backoff backoff = new Backoff(1000, 8000, new Random(42));
+        for (int retry = 0; retry < 40; retry++) {
+            long bound = Math.min(8000, retry < 30 ? 1000L << retry : Long.MAX_VALUE);
+            for (int i = 0; i < 100; i++) {
+                long delay = backoff.getDelay(retry);
+                assertTrue("retry " + retry + ": " + delay, delay >= 0 && delay < bound);
+            }
+        }
+    }
+
+    @Test
+    public void delaysAreJittered() {
+        Backoff backoff = new Backoff(1000, 8000, new Random(42));
+        long first = backoff.getDelay(3);
+        boolean varied = false;
+        for (int i = 0; i < 20 && !varied; i++) {
+            varied = backoff.getDelay(3) != first;
+        }
+        assertTrue(varied);
+    }
+
+    @Test
+    public void boundIsReachedOnLaterRetries() {
+        // Always the top of the range
+        Backoff backoff = new Backoff(1000, 8000, new Random() {
+            @Override
+            public double nextDouble() {
+                return 0.9999;
+            }
+        });
+        assertTrue(backoff.getDelay(0) < 1000);
+        assertTrue(backoff.getDelay(5) >= 7990);
+    }
+}
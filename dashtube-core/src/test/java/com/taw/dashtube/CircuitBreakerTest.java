@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private final CircuitBreaker breaker = new CircuitBreaker(3, 1000, 4000);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+        assertTrue(breaker.allowRequest(0));
+
+        breaker.recordFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(999));
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+        breaker.recordSuccess();
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void letsOneProbeThroughAfterTheCoolOff() {
+        open(0);
+
+        assertTrue(breaker.allowRequest(1000));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(1000));
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(1000));
+    }
+
+    @Test
+    public void failedProbesDoubleTheCoolOffUpToTheLimit() {
+        open(0);
+
+        assertTrue(breaker.allowRequest(1000));
+        breaker.recordFailure(1000);
+        assertFalse(breaker.allowRequest(2999));
+        assertTrue(breaker.allowRequest(3000));
+
+        breaker.recordFailure(3000);
+        assertFalse(breaker.allowRequest(6999));
+        assertTrue(breaker.allowRequest(7000));
+
+        breaker.recordFailure(7000);
+        assertTrue(breaker.allowRequest(11000));
+    }
+
+    private void open(long now) {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure(now);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class DataBudgetTest {
+
+    private static final TimeZone LONDON = TimeZone.getTimeZone("Europe/London");
+
+    private DataBudget budget;
+
+    @Before
+    public void setUp() {
+        budget = new DataBudget(LONDON);
+        budget.setCaps(1000, 10000);
+    }
+
+    @Test
+    public void levelRisesAsTheDailyCapNears() {
+        long now = at(2014, 6, 10, 12, 0);
+        assertEquals(DataBudget.Level.NORMAL, budget.getLevel(now, true, false));
+
+        budget.record(750, now);
+        assertEquals(DataBudget.Level.STRETCHED, budget.getLevel(now, true, false));
+        budget.record(150, now);
+        assertEquals(DataBudget.Level.CONSERVE, budget.getLevel(now, true, false));
+        budget.record(100, now);
+        assertEquals(DataBudget.Level.STOPPED, budget.getLevel(now, true, false));
+    }
+
+    @Test
+    public void unmeteredConnectionsAreNeverLimited() {
+        long now = at(2014, 6, 10, 12, 0);
+        budget.record(5000, now);
+
+        assertEquals(DataBudget.Level.NORMAL, budget.getLevel(now, false, false));
+    }
+
+    @Test
+    public void roamingIsAtLeastConserve() {
+        long now = at(2014, 6, 10, 12, 0);
+        assertEquals(DataBudget.Level.CONSERVE, budget.getLevel(now, true, true));
+
+        budget.record(1000, now);
+        assertEquals(DataBudget.Level.STOPPED, budget.getLevel(now, true, true));
+    }
+
+    @Test
+    public void dailyCountStartsAgainAtMidnight() {
+        budget.record(1000, at(2014, 6, 10, 23, 59));
+        long tomorrow = at(2014, 6, 11, 0, 1);
+
+        assertEquals(DataBudget.Level.NORMAL, budget.getLevel(tomorrow, true, false));
+        assertEquals(0, budget.getDayBytes(tomorrow));
+        assertEquals(1000, budget.getMonthBytes(tomorrow));
+    }
+
+    @Test
+    public void monthlyCountStartsAgainOnTheFirst() {
+        budget.setCaps(0, 10000);
+        for (int day = 1; day <= 30; day++) {
+            budget.record(300, at(2014, 6, day, 12, 0));
+        }
+        assertEquals(DataBudget.Level.CONSERVE, budget.getLevel(at(2014, 6, 30, 13, 0), true, false));
+
+        long nextMonth = at(2014, 7, 1, 0, 1);
+        assertEquals(0, budget.getMonthBytes(nextMonth));
+        assertEquals(DataBudget.Level.NORMAL, budget.getLevel(nextMonth, true, false));
+    }
+
+    @Test
+    public void yearEndRollsBothCounts() {
+        budget.record(900, at(2014, 12, 31, 23, 0));
+        long newYear = at(2015, 1, 1, 0, 30);
+
+        assertEquals(0, budget.getDayBytes(newYear));
+        assertEquals(0, budget.getMonthBytes(newYear));
+    }
+
+    @Test
+    public void restoredCountsCarryOn() {
+        long now = at(2014, 6, 10, 12, 0);
+        budget.record(800, now);
+
+        DataBudget restored = new DataBudget(LONDON);
+        restored.setCaps(1000, 10000);
+        restored.restore(budget.getDay(), budget.getDayBytes(now), budget.getMonth(), budget.getMonthBytes(now));
+
+        assertEquals(800, restored.getDayBytes(now));
+        assertEquals(DataBudget.Level.STRETCHED, restored.getLevel(now, true, false));
+    }
+
+    @Test
+    public void noCapsMeansNoLimit() {
+        long now = at(2014, 6, 10, 12, 0);
+        budget.setCaps(0, 0);
+        budget.record(1000000, now);
+
+        assertEquals(DataBudget.Level.NORMAL, budget.getLevel(now, true, false));
+    }
+
+    private static long at(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = new GregorianCalendar(LONDON);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+}
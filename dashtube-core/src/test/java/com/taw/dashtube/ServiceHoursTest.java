@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.taw.dashtube.model.Favourites;
+import com.taw.dashtube.model.Tube;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class ServiceHoursTest {
+
+    private static final TimeZone LONDON = TimeZone.getTimeZone("Europe/London");
+
+    /** Boxing Day 2014 was a Friday. */
+    private final ServiceHours hours = new ServiceHours(new String[] { "2014-12-26", "not a date", "2014-13-01" });
+
+    @Test
+    public void linesRunDuringTheDay() {
+        assertTrue(hours.isRunning(Tube.BAKERLOO, at(2014, 6, 10, 12, 0)));
+        assertTrue(hours.isRunning(Tube.DLR, at(2014, 6, 10, 12, 0)));
+    }
+
+    @Test
+    public void linesDontRunOvernightMidweek() {
+        assertFalse(hours.isRunning(Tube.BAKERLOO, at(2014, 6, 10, 3, 0)));
+        assertFalse(hours.isRunning(Tube.CENTRAL, at(2014, 6, 10, 3, 0)));
+    }
+
+    @Test
+    public void serviceRunsPastMidnight() {
+        // Monday's service runs to 00:30 on Tuesday; Sunday's ends at 23:30
+        assertTrue(hours.isRunning(Tube.BAKERLOO, at(2014, 6, 10, 0, 15)));
+        assertFalse(hours.isRunning(Tube.BAKERLOO, at(2014, 6, 9, 0, 15)));
+    }
+
+    @Test
+    public void nightTubeRunsThroughFridayNight() {
+        // Small hours of Saturday 14 June 2014
+        assertTrue(hours.isRunning(Tube.CENTRAL, at(2014, 6, 14, 3, 0)));
+        assertFalse(hours.isRunning(Tube.BAKERLOO, at(2014, 6, 14, 3, 0)));
+    }
+
+    @Test
+    public void waterlooAndCityIsClosedOnSundays() {
+        assertFalse(hours.isRunning(Tube.WLOO_AND_CITY, at(2014, 6, 15, 12, 0)));
+        assertTrue(hours.isRunning(Tube.WLOO_AND_CITY, at(2014, 6, 16, 12, 0)));
+    }
+
+    @Test
+    public void holidaysKeepSundayHours() {
+        // Sunday service starts at 07:00, weekday service at 05:30
+        assertFalse(hours.isRunning(Tube.BAKERLOO, at(2014, 12, 26, 6, 0)));
+        assertTrue(hours.isRunning(Tube.BAKERLOO, at(2014, 12, 19, 6, 0)));
+    }
+
+    @Test
+    public void nothingRunsOnChristmasDay() {
+        for (Tube tube : Tube.values()) {
+            assertFalse(tube.name(), hours.isRunning(tube, at(2014, 12, 25, 12, 0)));
+            assertFalse(tube.name(), hours.isRunning(tube, at(2015, 12, 25, 12, 0)));
+        }
+    }
+
+    @Test
+    public void onlyFavouritesAreChecked() {
+        long sunday = at(2014, 6, 15, 12, 0);
+        Favourites waterlooAndCity = Favourites.fromIds(new HashSet<String>(Arrays.asList(Tube.WLOO_AND_CITY.getId())));
+
+        assertFalse(hours.isAnyRunning(waterlooAndCity, sunday));
+        assertTrue(hours.isAnyRunning(Favourites.NONE, sunday));
+    }
+
+    private static long at(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = new GregorianCalendar(LONDON);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube;
+
+import com.taw.dashtube.model.StatusCode;
+import com.taw.dashtube.model.StatusSnapshot;
+import com.taw.dashtube.model.Tube;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class StatusHistoryTest {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final long RETENTION = 28 * DAY;
+    private static final long START = 1400000000000L;
+
+    private File file;
+    private StatusHistory history;
+    private StatusSnapshot previous = StatusSnapshot.EMPTY;
+    /** Central's status, held across records. */
+    private String central = null;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("status", ".history");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (history != null) {
+            history.close();
+        }
+        file.delete();
+    }
+
+    @Test
+    public void compactsForAgeAboutOnceADay() throws IOException {
+        history = new StatusHistory(file, 4096, RETENTION);
+        record(START, null, null);
+        central = "Part Closure";
+        record(START + MINUTE, null, null);
+
+        // Bakerloo flips between good service and minor delays every half hour, for 60 days
+        int days = 60;
+        for (long time = START + 30 * MINUTE; time < START + days * DAY; time += 30 * MINUTE) {
+            boolean delayed = (time - START) / (30 * MINUTE) % 2 == 1;
+            record(time, Tube.BAKERLOO, delayed ? "Minor Delays" : null);
+        }
+
+        // Nothing's old enough to drop until day 29; from then on, one compaction a day at most
+        int compactions = history.getCompactions();
+        assertTrue("compacted " + compactions + " times", compactions > 0 && compactions <= days - 28);
+
+        // Kept within the retention period, plus a day's slack
+        assertTrue("holds " + history.size(), history.size() <= (29 * 48) + 2 * Tube.values().length);
+
+        // Central's status was carried over with the time it began
+        long[] since = new long[Tube.values().length];
+        history.getSince(since);
+        assertEquals(START + MINUTE, since[Tube.CENTRAL.ordinal()]);
+    }
+
+    @Test
+    public void carriedCountSurvivesReopening() throws IOException {
+        history = new StatusHistory(file, 4096, RETENTION);
+        record(START, null, null);
+        for (long time = START + DAY; time < START + 39 * DAY; time += DAY) {
+            record(time, Tube.BAKERLOO, ((time - START) / DAY) % 2 == 1 ? "Severe Delays" : null);
+        }
+        int compactions = history.getCompactions();
+        history.close();
+
+        // The last compaction was on day 38, so a minute later there's nothing to drop
+        history = new StatusHistory(file, 4096, RETENTION);
+        record(START + 38 * DAY + MINUTE, Tube.BAKERLOO, "Minor Delays");
+        assertEquals(0, history.getCompactions());
+        assertTrue(compactions > 0);
+    }
+
+    @Test
+    public void appendLargerThanTheFreeSpaceDoesNotThrow() throws IOException {
+        int lines = Tube.values().length;
+        history = new StatusHistory(file, lines + 7, RETENTION);
+        record(START, null, null);
+        assertEquals(lines, history.size());
+
+        // Every line changes at once; only what fits after compaction is kept
+        StatusSnapshot.Builder builder = new StatusSnapshot.Builder();
+        for (Tube tube : Tube.values()) {
+            builder.add(tube.getId(), tube.getName(), "Severe Delays", true, null);
+        }
+        StatusSnapshot current = builder.build();
+        history.record(START + MINUTE, current, StatusDiff.diff(previous, current), true);
+
+        assertEquals(lines + 7, history.size());
+    }
+
+    @Test
+    public void scanFindsTransitionsInRange() throws IOException {
+        history = new StatusHistory(file, 4096, RETENTION);
+        record(START, null, null);
+        record(START + 10 * MINUTE, Tube.VICTORIA, "Suspended");
+        record(START + 20 * MINUTE, Tube.VICTORIA, null);
+
+        final int[] seen = new int[1];
+        history.scan(START + MINUTE, START + 15 * MINUTE, new StatusHistory.Visitor() {
+            @Override
+            public void visit(long time, Tube tube, StatusCode code) {
+                assertEquals(START + 10 * MINUTE, time);
+                assertSame(Tube.VICTORIA, tube);
+                assertSame(StatusCode.SUSPENDED, code);
+                seen[0]++;
+            }
+        });
+        assertEquals(1, seen[0]);
+    }
+
+    /**
+     * Record statuses where every line has good service, except the supplied one and
+     * Central, if {@link #central} is set.
+     */
+    private void record(long time, Tube disrupted, String description) throws IOException {
+        StatusSnapshot.Builder builder = new StatusSnapshot.Builder();
+        for (Tube tube : Tube.values()) {
+            if (tube == disrupted && description != null) {
+                builder.add(tube.getId(), tube.getName(), description, true, null);
+            } else if (tube == Tube.CENTRAL && central != null) {
+                builder.add(tube.getId(), tube.getName(), central, true, null);
+            } else {
+                builder.add(tube.getId(), tube.getName(), "Good Service", false, null);
+            }
+        }
+        StatusSnapshot current = builder.build();
+        history.record(time, current, StatusDiff.diff(previous, current), true);
+        previous = current;
+    }
+}
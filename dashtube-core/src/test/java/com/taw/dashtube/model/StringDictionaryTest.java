@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StringDictionaryTest {
+
+    @Test
+    public void equalStringsShareCodeAndInstance() {
+        StringDictionary dictionary = new StringDictionary(4);
+        String[] out = new String[2];
+
+        int first = dictionary.intern(new String("Good Service"), out, 0);
+        int second = dictionary.intern(new String("Good Service"), out, 1);
+
+        assertEquals(first, second);
+        assertSame(out[0], out[1]);
+        assertSame(out[0], dictionary.get(first));
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    public void nullHasNullCode() {
+        StringDictionary dictionary = new StringDictionary(4);
+        String[] out = { "stale" };
+
+        assertEquals(StringDictionary.NULL, dictionary.intern(null, out, 0));
+        assertNull(out[0]);
+        assertNull(dictionary.get(StringDictionary.NULL));
+    }
+
+    @Test
+    public void fullDictionaryDoesNotIntern() {
+        StringDictionary dictionary = new StringDictionary(2);
+        String[] out = new String[3];
+        dictionary.intern("Minor Delays", out, 0);
+        dictionary.intern("Severe Delays", out, 1);
+
+        String value = new String("Part Closure");
+        assertEquals(StringDictionary.NONE, dictionary.intern(value, out, 2));
+        assertSame(value, out[2]);
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    public void codesOfCollectedStringsAreReused() throws InterruptedException {
+        StringDictionary dictionary = new StringDictionary(1);
+        int code = dictionary.intern(new String("Planned Closure"), new String[1], 0);
+        assertTrue(code > StringDictionary.NULL);
+
+        // Nothing holds the canonical instance, so once it's collected its code is free again
+        String[] out = new String[1];
+        int reused = StringDictionary.NONE;
+        for (int attempt = 0; attempt < 50 && reused == StringDictionary.NONE; attempt++) {
+            System.gc();
+            Thread.sleep(10);
+            reused = dictionary.intern(new String("Suspended"), out, 0);
+        }
+
+        assertEquals(code, reused);
+        assertEquals("Suspended", dictionary.get(reused));
+        assertEquals(1, dictionary.size());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013-2014 That Amazing Web Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.taw.dashtube.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the lookups generated from the line definitions.
+ */
+public class TubeTest {
+
+    @Test
+    public void everyLineIsFoundByItsIds() {
+        for (Tube tube : Tube.values()) {
+            assertSame(tube, Tube.forId(tube.getId()));
+            assertSame(tube, Tube.forUnifiedId(tube.getUnifiedId()));
+        }
+    }
+
+    @Test
+    public void everyLineIsFoundByItsOrdinal() {
+        assertEquals(Tube.values().length, Tube.COUNT);
+        for (Tube tube : Tube.values()) {
+            assertSame(tube, Tube.forOrdinal(tube.ordinal()));
+        }
+    }
+
+    @Test
+    public void unknownIdsAreNotFound() {
+        assertNull(Tube.forId(null));
+        assertNull(Tube.forId(""));
+        assertNull(Tube.forId("99"));
+        assertNull(Tube.forId("bakerloo"));
+        assertNull(Tube.forUnifiedId(null));
+        assertNull(Tube.forUnifiedId(""));
+        assertNull(Tube.forUnifiedId("1"));
+        assertNull(Tube.forUnifiedId("elizabeth"));
+        assertNull(Tube.forUnifiedId("Bakerloo"));
+    }
+
+    @Test
+    public void displayOrderCoversEveryLineOnce() {
+        int[] order = Tube.DISPLAY_ORDER.clone();
+        Arrays.sort(order);
+
+        int[] ordinals = new int[Tube.values().length];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = i;
+        }
+        assertArrayEquals(ordinals, order);
+    }
+
+    @Test
+    public void displayOrderIsByName() {
+        Tube[] tubes = Tube.values();
+        for (int i = 1; i < Tube.DISPLAY_ORDER.length; i++) {
+            String previous = tubes[Tube.DISPLAY_ORDER[i - 1]].getName();
+            String name = tubes[Tube.DISPLAY_ORDER[i]].getName();
+            assertTrue(previous + " before " + name, previous.compareToIgnoreCase(name) <= 0);
+        }
+    }
+}